@@ -0,0 +1,72 @@
+package cc.mewa;
+
+import java.util.Locale;
+
+/**
+ * ConnectTimings - duration of phases of the last <i>MewaConnection.connect()</i>, up to joining the channel.
+ */
+public final class ConnectTimings {
+	private final long failoverNanos;
+	private final long resolveNanos;
+	private final long handshakeNanos;
+	private final long joinNanos;
+
+	ConnectTimings(long failoverNanos, long resolveNanos, long handshakeNanos, long joinNanos) {
+		this.failoverNanos = failoverNanos;
+		this.resolveNanos = resolveNanos;
+		this.handshakeNanos = handshakeNanos;
+		this.joinNanos = joinNanos;
+	}
+
+	/**
+	 * Returns time spent before trying the server that was connected to: probing servers and failed attempts to others.
+	 * Zero with a single server that succeeded at once.
+	 *
+	 * @return - nanoseconds
+	 */
+	public long getFailoverNanos() {
+		return failoverNanos;
+	}
+
+	/**
+	 * Returns time of resolving host name. Close to zero when the address was cached, e.g. by <i>MewaConnection.prewarm()</i>.
+	 *
+	 * @return - nanoseconds
+	 */
+	public long getResolveNanos() {
+		return resolveNanos;
+	}
+
+	/**
+	 * Returns time of opening WebSocket: TCP connect, TLS handshake and HTTP upgrade.
+	 *
+	 * @return - nanoseconds
+	 */
+	public long getHandshakeNanos() {
+		return handshakeNanos;
+	}
+
+	/**
+	 * Returns time from sending connect frame to receiving "connected" from the channel.
+	 *
+	 * @return - nanoseconds
+	 */
+	public long getJoinNanos() {
+		return joinNanos;
+	}
+
+	/**
+	 * Returns time from calling <i>connect()</i> to receiving "connected" from the channel, including failover.
+	 *
+	 * @return - nanoseconds
+	 */
+	public long getTotalNanos() {
+		return failoverNanos + resolveNanos + handshakeNanos + joinNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "ConnectTimings[failover %.3f ms, resolve %.3f ms, handshake %.3f ms, join %.3f ms, total %.3f ms]",
+				failoverNanos / 1e6, resolveNanos / 1e6, handshakeNanos / 1e6, joinNanos / 1e6, getTotalNanos() / 1e6);
+	}
+}
@@ -0,0 +1,204 @@
+package cc.mewa;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Endpoints - health of alternative server URIs of one connection, ordering them for connect.
+ * <p>
+ * Each endpoint has smoothed round trip time, from TCP connect probes and heartbeat pings, and smoothed error rate, from
+ * connects, connection errors and unanswered pings. Endpoints are preferred by RTT multiplied by (1 + 4 * error rate),
+ * unknown RTT counts as slow. Failed endpoint is skipped for a backoff period doubling with each consecutive failure,
+ * up to a minute. Thread-safe.
+ */
+final class Endpoints {
+	private static final double RTT_WEIGHT = 0.2;
+	private static final double ERROR_WEIGHT = 0.25;
+	private static final double ERROR_PENALTY = 4;
+	private static final double UNKNOWN_RTT_MILLIS = 1000;
+	private static final long BASE_BACKOFF_MILLIS = 1000;
+	private static final long MAX_BACKOFF_MILLIS = 60000;
+
+	private final Endpoint[] endpoints;
+
+	Endpoints(String[] uris) {
+		if (uris.length == 0) throw new IllegalArgumentException("No endpoints");
+		endpoints = new Endpoint[uris.length];
+		for (int i = 0; i < uris.length; i++) {
+			endpoints[i] = new Endpoint(uris[i], i);
+		}
+	}
+
+	int size() {
+		return endpoints.length;
+	}
+
+	/**
+	 * Returns URIs from the most to the least preferred.
+	 */
+	synchronized List<String> order() {
+		final long now = System.currentTimeMillis();
+		Endpoint[] sorted = endpoints.clone();
+		Arrays.sort(sorted, new Comparator<Endpoint>() {
+			@Override
+			public int compare(Endpoint a, Endpoint b) {
+				boolean aBackoff = a.inBackoff(now);
+				boolean bBackoff = b.inBackoff(now);
+				if (aBackoff != bBackoff) return aBackoff ? 1 : -1;
+				if (aBackoff) return a.retryAt() < b.retryAt() ? -1 : (a.retryAt() > b.retryAt() ? 1 : 0);
+				int byScore = Double.compare(a.score(), b.score());
+				return byScore != 0 ? byScore : a.position - b.position;
+			}
+		});
+		List<String> uris = new ArrayList<String>(sorted.length);
+		for (Endpoint endpoint : sorted) {
+			uris.add(endpoint.uri);
+		}
+		return uris;
+	}
+
+	/**
+	 * Returns whether some endpoint wasn't measured yet.
+	 */
+	synchronized boolean hasUnknown() {
+		for (Endpoint endpoint : endpoints) {
+			if (Double.isNaN(endpoint.rttMillis) && endpoint.failures == 0) return true;
+		}
+		return false;
+	}
+
+	synchronized void recordRtt(String uri, double rttMillis) {
+		Endpoint endpoint = find(uri);
+		if (endpoint == null) return;
+		endpoint.rttMillis = Double.isNaN(endpoint.rttMillis) ? rttMillis : endpoint.rttMillis + RTT_WEIGHT * (rttMillis - endpoint.rttMillis);
+	}
+
+	synchronized void recordSuccess(String uri) {
+		Endpoint endpoint = find(uri);
+		if (endpoint == null) return;
+		endpoint.failures = 0;
+		endpoint.errorRate -= ERROR_WEIGHT * endpoint.errorRate;
+	}
+
+	synchronized void recordFailure(String uri) {
+		Endpoint endpoint = find(uri);
+		if (endpoint == null) return;
+		endpoint.failures++;
+		endpoint.lastFailure = System.currentTimeMillis();
+		endpoint.errorRate += ERROR_WEIGHT * (1 - endpoint.errorRate);
+	}
+
+	/**
+	 * Records error of established connection, e.g. unanswered ping. Lowers score without skipping the endpoint.
+	 */
+	synchronized void recordError(String uri) {
+		Endpoint endpoint = find(uri);
+		if (endpoint == null) return;
+		endpoint.errorRate += ERROR_WEIGHT * (1 - endpoint.errorRate);
+	}
+
+	/**
+	 * Measures TCP connect time to all endpoints in parallel.
+	 *
+	 * @param timeoutMillis - time limit of a probe; endpoint not answering in time counts as failed
+	 */
+	void probe(final int timeoutMillis) {
+		final CountDownLatch done = new CountDownLatch(endpoints.length);
+		for (final Endpoint endpoint : endpoints) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						long start = System.nanoTime();
+						connectSocket(endpoint.uri, timeoutMillis);
+						recordRtt(endpoint.uri, (System.nanoTime() - start) / 1e6);
+					} catch (IOException e) {
+						recordFailure(endpoint.uri);
+					} catch (IllegalArgumentException e) {
+						recordFailure(endpoint.uri);
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "mewa-probe");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		try {
+			done.await(timeoutMillis + 1000, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder("Endpoints[");
+		for (int i = 0; i < endpoints.length; i++) {
+			Endpoint endpoint = endpoints[i];
+			if (i > 0) sb.append(", ");
+			sb.append(endpoint.uri).append(' ').append(Double.isNaN(endpoint.rttMillis) ? "?" : String.format("%.1f", endpoint.rttMillis))
+					.append(" ms, ").append(String.format("%.2f", endpoint.errorRate)).append(" errors");
+		}
+		return sb.append(']').toString();
+	}
+
+	private static void connectSocket(String uri, int timeoutMillis) throws IOException {
+		URI target = URI.create(uri);
+		int port = target.getPort();
+		if (port < 0) {
+			port = "wss".equalsIgnoreCase(target.getScheme()) ? 443 : 80;
+		}
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(target.getHost(), port), timeoutMillis);
+		} finally {
+			socket.close();
+		}
+	}
+
+	private Endpoint find(String uri) {
+		for (Endpoint endpoint : endpoints) {
+			if (endpoint.uri.equals(uri)) return endpoint;
+		}
+		return null;
+	}
+
+	/**
+	 * Endpoint - single server URI and its health
+	 */
+	private static class Endpoint {
+		final String uri;
+		final int position;
+		double rttMillis = Double.NaN;
+		double errorRate;
+		int failures;
+		long lastFailure;
+
+		Endpoint(String uri, int position) {
+			this.uri = uri;
+			this.position = position;
+		}
+
+		double score() {
+			return (Double.isNaN(rttMillis) ? UNKNOWN_RTT_MILLIS : rttMillis) * (1 + ERROR_PENALTY * errorRate);
+		}
+
+		long retryAt() {
+			long backoff = BASE_BACKOFF_MILLIS << Math.min(failures - 1, 16);
+			return lastFailure + Math.min(backoff, MAX_BACKOFF_MILLIS);
+		}
+
+		boolean inBackoff(long now) {
+			return failures > 0 && now < retryAt();
+		}
+	}
+}
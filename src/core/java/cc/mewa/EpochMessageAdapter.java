@@ -0,0 +1,104 @@
+package cc.mewa;
+
+import java.util.List;
+
+
+/**
+ * EpochMessageAdapter - OnMessageAdapter delivering timestamps as milliseconds since epoch instead of ISO 8601 Strings.
+ * Override the <i>long timestamp</i> variants of methods. Implemented methods are empty.
+ */
+public abstract class EpochMessageAdapter extends OnMessageAdapter {
+	private final TimestampParser timestampParser = new TimestampParser();
+
+	/**
+	 * Invoked whenever a device joins the channel.
+	 *
+	 * @param timestamp - milliseconds since epoch when packet was processed in the channel
+	 * @param device - name of the device
+	 */
+	public void onDeviceJoinedChannel(long timestamp, String device) {};
+
+	/**
+	 * Invoked whenever a device leaves the channel.
+	 *
+	 * @param timestamp - milliseconds since epoch when packet was processed in the channel
+	 * @param device - name of the device
+	 */
+	public void onDeviceLeftChannel(long timestamp, String device) {};
+
+	/**
+	 * Invoked when receiving an event sent from a device.
+	 *
+	 * @param timestamp - milliseconds since epoch when packet was processed in the channel
+	 * @param fromDevice - name of the device
+	 * @param eventId - event type
+	 * @param params - event parameters
+	 */
+	public void onEvent(long timestamp, String fromDevice, String eventId, String params) {};
+
+	/**
+	 * Invoked when receiving a message sent from a device.
+	 *
+	 * @param timestamp - milliseconds since epoch when packet was processed in the channel
+	 * @param fromDevice - name of the device
+	 * @param msgId - message type
+	 * @param params - message parameters
+	 */
+	public void onMessage(long timestamp, String fromDevice, String msgId, String params) {};
+
+	/**
+	 * Invoked when a channel, after requested, sends list of connected devices to this device.
+	 *
+	 * @param timestamp - milliseconds since epoch when packet was processed in the channel
+	 * @param deviceList - list of connected devices in channel
+	 */
+	public void onDevicesEvent(long timestamp, List<String> deviceList) {};
+
+	/**
+	 * Invoked when a channel, after requested, sends list of last events given by request parameters.
+	 * Entries keep ISO 8601 timestamps, use <i>getTimestampParser()</i> to convert them.
+	 *
+	 * @param timestamp - milliseconds since epoch when packet was processed in the channel
+	 * @param eventList - list of events in array: timestamp, device, eventId, params
+	 */
+	public void onLastEvents(long timestamp, List<String[]> eventList) {};
+
+	/**
+	 * Returns the parser used by this adapter. Its date and hour cache is shared with incoming frames.
+	 *
+	 * @return - TimestampParser
+	 */
+	public TimestampParser getTimestampParser() {
+		return timestampParser;
+	}
+
+	@Override
+	public final void onDeviceJoinedChannel(String timestamp, String device) {
+		onDeviceJoinedChannel(timestampParser.parseMillis(timestamp), device);
+	}
+
+	@Override
+	public final void onDeviceLeftChannel(String timestamp, String device) {
+		onDeviceLeftChannel(timestampParser.parseMillis(timestamp), device);
+	}
+
+	@Override
+	public final void onEvent(String timestamp, String fromDevice, String eventId, String params) {
+		onEvent(timestampParser.parseMillis(timestamp), fromDevice, eventId, params);
+	}
+
+	@Override
+	public final void onMessage(String timestamp, String fromDevice, String msgId, String params) {
+		onMessage(timestampParser.parseMillis(timestamp), fromDevice, msgId, params);
+	}
+
+	@Override
+	public final void onDevicesEvent(String timestamp, List<String> deviceList) {
+		onDevicesEvent(timestampParser.parseMillis(timestamp), deviceList);
+	}
+
+	@Override
+	public final void onLastEvents(String timestamp, List<String[]> eventList) {
+		onLastEvents(timestampParser.parseMillis(timestamp), eventList);
+	}
+}
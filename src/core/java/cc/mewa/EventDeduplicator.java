@@ -0,0 +1,167 @@
+package cc.mewa;
+
+import java.util.Arrays;
+
+/**
+ * EventDeduplicator - suppresses events that were already delivered, e.g. resent after reconnect or replayed by last-events.
+ * An event is identified by its fingerprint (timestamp, device, event type and parameters).
+ * <p>
+ * Fingerprints are kept in a rotating pair of Bloom filters, so memory use is fixed regardless of traffic. A fingerprint is
+ * remembered for at least half of the window (or until the filter holds its capacity of newer events) and at most the whole window.
+ * A Bloom filter may report false positives, so with the given rate a new event can be suppressed as a duplicate. Each event
+ * is checked against both filters, so each is sized for half of the rate.
+ */
+public class EventDeduplicator {
+	private static final double LN2 = Math.log(2);
+
+	private final long[][] generations;
+	private final int bitsPerGeneration;
+	private final int hashCount;
+	private final int capacity;
+	private final long windowMillis;
+
+	private int current;
+	private int currentCount;
+	private long currentStart;
+	private long suppressedCount;
+
+	/**
+	 * Constructor for EventDeduplicator.
+	 * Example: new EventDeduplicator(64 * 1024, 0.001, 10 * 60 * 1000)
+	 *
+	 * @param maxMemoryBytes - memory ceiling for stored fingerprints, in bytes
+	 * @param falsePositiveRate - probability of suppressing a new event, between 0 and 1 (exclusive)
+	 * @param windowMillis - how long the fingerprints are remembered, in milliseconds
+	 */
+	public EventDeduplicator(int maxMemoryBytes, double falsePositiveRate, long windowMillis) {
+		if (maxMemoryBytes < 16) {
+			throw new IllegalArgumentException("maxMemoryBytes must be at least 16");
+		}
+		if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1");
+		}
+		if (windowMillis <= 0) {
+			throw new IllegalArgumentException("windowMillis must be positive");
+		}
+		int words = maxMemoryBytes / 16; // two generations of 8-byte words
+		bitsPerGeneration = words * 64;
+		double generationRate = falsePositiveRate / 2; // a lookup may match either generation
+		hashCount = Math.max(1, (int) Math.round(-Math.log(generationRate) / LN2));
+		capacity = Math.max(1, (int) (bitsPerGeneration * LN2 * LN2 / -Math.log(generationRate)));
+		this.windowMillis = windowMillis;
+		generations = new long[2][words];
+		current = 0;
+		currentStart = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns how many fingerprints fit in one generation before it rotates early to keep the false positive rate.
+	 *
+	 * @return - capacity of a single generation
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns how many events were reported as duplicates so far.
+	 *
+	 * @return - number of suppressed events
+	 */
+	public synchronized long getSuppressedCount() {
+		return suppressedCount;
+	}
+
+	/**
+	 * Checks whether the event was already seen within the window and records it as seen.
+	 *
+	 * @param timestamp - ISO 8601 time when packet was processed in the channel
+	 * @param device - name of the device
+	 * @param eventId - event type
+	 * @param params - event parameters
+	 * @return - true if the event is (probably) a duplicate
+	 */
+	public synchronized boolean isDuplicate(String timestamp, String device, String eventId, String params) {
+		rotateIfNeeded();
+
+		long h1 = 0xcbf29ce484222325L;
+		h1 = hash(h1, timestamp);
+		h1 = hash(h1, device);
+		h1 = hash(h1, eventId);
+		h1 = hash(h1, params);
+		long h2 = mix(h1);
+		h1 = mix(h1 ^ 0x9e3779b97f4a7c15L);
+
+		long[] fresh = generations[current];
+		long[] old = generations[1 - current];
+		boolean inFresh = true;
+		boolean inOld = true;
+		for (int i = 0; i < hashCount; i++) {
+			int bit = (int) (((h1 + i * h2) & Long.MAX_VALUE) % bitsPerGeneration);
+			long mask = 1L << bit;
+			int word = bit >>> 6;
+			if ((fresh[word] & mask) == 0) {
+				inFresh = false;
+				fresh[word] |= mask;
+			}
+			if ((old[word] & mask) == 0) {
+				inOld = false;
+			}
+		}
+
+		if (inFresh || inOld) {
+			suppressedCount++;
+			return true;
+		}
+		currentCount++;
+		return false;
+	}
+
+	/**
+	 * Forgets all fingerprints.
+	 */
+	public synchronized void clear() {
+		for (long[] generation : generations) {
+			Arrays.fill(generation, 0L);
+		}
+		currentCount = 0;
+		currentStart = System.currentTimeMillis();
+	}
+
+	/**
+	 * Drops the older generation when the current one is half a window old or full.
+	 */
+	private void rotateIfNeeded() {
+		long now = System.currentTimeMillis();
+		if (now - currentStart < windowMillis / 2 && currentCount < capacity) return;
+
+		if (now - currentStart >= windowMillis) { // idle for a whole window, the current generation has expired too
+			Arrays.fill(generations[current], 0L);
+		}
+		current = 1 - current;
+		Arrays.fill(generations[current], 0L);
+		currentCount = 0;
+		currentStart = now;
+	}
+
+	private static long hash(long h, String s) {
+		if (s != null) {
+			for (int i = 0; i < s.length(); i++) {
+				h ^= s.charAt(i);
+				h *= 0x100000001b3L;
+			}
+		}
+		h ^= 0xffff; // separator, so ("ab","c") differs from ("a","bc")
+		h *= 0x100000001b3L;
+		return h;
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb93fe53aed53L;
+		h ^= h >>> 33;
+		return h | 1; // odd step, so double hashing walks all bits
+	}
+}
@@ -0,0 +1,801 @@
+package cc.mewa;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * EventLog - on-disk, append-only log of received events, answering history queries without the network.
+ * <p>
+ * Events are written by a background thread, so <i>append()</i> never blocks; if the write queue is full the event is dropped
+ * and counted. The log is split into segment files. Each segment keeps a sparse index of blocks (file offset and time range
+ * of every few hundred records) and the sets of devices and event types it contains, so queries read only blocks that can match.
+ * Index of a full segment is stored next to it, the newest segment is scanned when the log is opened.
+ * Old segments are deleted when their newest event is older than the maximum age, or when the log exceeds the maximum size.
+ * When all events of the active segment are older than the maximum age, a new segment is started so the old one can be deleted.
+ */
+public class EventLog {
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String INDEX_SUFFIX = ".idx";
+	private static final int INDEX_VERSION = 1;
+	private static final int BLOCK_RECORDS = 256;
+	private static final int BLOCK_BYTES = 64 * 1024;
+	private static final long RETENTION_CHECK_MILLIS = 1000;
+
+	private final File directory;
+	private final long maxAgeMillis;
+	private final long maxSizeBytes;
+	private final long segmentBytes;
+	private final TimestampParser timestampParser = new TimestampParser();
+	private final StringPool keyPool = new StringPool(1024);
+
+	private final ReentrantLock segmentsLock = new ReentrantLock();
+	private final List<Segment> segments = new ArrayList<Segment>(); // guarded by segmentsLock, oldest first
+	private final BlockingQueue<Record> queue;
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final Thread writerThread;
+	private volatile boolean closed;
+
+	private DataOutputStream output; // used by writer thread only
+	private long outputSize;
+
+	/**
+	 * Constructor for EventLog. Opens or creates log in the directory, with 8 MB segments and room for 10000 queued events.
+	 *
+	 * @param directory - directory for log files, created if missing
+	 * @param maxAgeMillis - events older than this may be deleted, 0 for no limit
+	 * @param maxSizeBytes - total size of log files, oldest segments are deleted above it, 0 for no limit
+	 * @throws IOException - if the directory can't be created or read
+	 */
+	public EventLog(File directory, long maxAgeMillis, long maxSizeBytes) throws IOException {
+		this(directory, maxAgeMillis, maxSizeBytes, 8 * 1024 * 1024, 10000);
+	}
+
+	/**
+	 * Constructor for EventLog.
+	 *
+	 * @param directory - directory for log files, created if missing
+	 * @param maxAgeMillis - events older than this may be deleted, 0 for no limit
+	 * @param maxSizeBytes - total size of log files, oldest segments are deleted above it, 0 for no limit
+	 * @param segmentBytes - size after which a new segment file is started
+	 * @param queueCapacity - number of events waiting to be written, before new ones are dropped
+	 * @throws IOException - if the directory can't be created or read
+	 */
+	public EventLog(File directory, long maxAgeMillis, long maxSizeBytes, long segmentBytes, int queueCapacity) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create directory " + directory);
+		}
+		this.directory = directory;
+		this.maxAgeMillis = maxAgeMillis;
+		this.maxSizeBytes = maxSizeBytes;
+		this.segmentBytes = segmentBytes;
+		this.queue = new LinkedBlockingQueue<Record>(queueCapacity);
+
+		loadSegments();
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "mewa-event-log");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Queues event for writing. Doesn't block.
+	 *
+	 * @param timestamp - ISO 8601 time when the event was processed in the channel
+	 * @param device - name of the device
+	 * @param eventId - event type
+	 * @param params - event parameters
+	 * @return - false if the event was dropped, because the queue is full or the log is closed
+	 */
+	public boolean append(String timestamp, String device, String eventId, String params) {
+		if (closed) return false;
+		long time;
+		try {
+			time = timestampParser.parseMillis(timestamp);
+		} catch (IllegalArgumentException e) {
+			time = System.currentTimeMillis();
+		}
+		if (!queue.offer(new Record(time, timestamp, device, eventId, params))) {
+			droppedCount.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns number of events dropped because the write queue was full.
+	 *
+	 * @return - number of dropped events
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Returns number of events that couldn't be written, because encoding them failed. Such events are skipped.
+	 *
+	 * @return - number of failed events
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * Waits until all events queued so far are written and visible to queries.
+	 *
+	 * @throws InterruptedException - if interrupted while waiting
+	 */
+	public void flush() throws InterruptedException {
+		if (closed) return;
+		Record marker = new Record(0, null, null, null, null);
+		marker.written = new CountDownLatch(1);
+		queue.put(marker);
+		marker.written.await();
+	}
+
+	/**
+	 * Writes queued events and closes the log. Later appends are dropped.
+	 */
+	public void close() {
+		if (closed) return;
+		try {
+			flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		closed = true;
+		writerThread.interrupt();
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns events within time range, filtered by device and event prefix, oldest segment first.
+	 *
+	 * @param fromMillis - start of range, inclusive, in milliseconds since epoch
+	 * @param toMillis - end of range, exclusive, in milliseconds since epoch
+	 * @param device - device name, or "" for all devices
+	 * @param eventPrefix - event prefix, or "" for all events
+	 * @return - list of events in array: timestamp, device, eventId, params
+	 * @throws IOException - if log files can't be read
+	 */
+	public List<String[]> query(long fromMillis, long toMillis, String device, String eventPrefix) throws IOException {
+		List<String[]> result = new ArrayList<String[]>();
+		long deviceBits = device.length() > 0 ? signature(device) : 0;
+		for (Segment segment : snapshot()) {
+			if (segment.maxTime < fromMillis || segment.minTime >= toMillis) continue;
+			if (!segment.mayContain(device, eventPrefix)) continue;
+
+			RandomAccessFile file;
+			try {
+				file = new RandomAccessFile(segment.file, "r");
+			} catch (FileNotFoundException e) {
+				continue; // deleted by retention meanwhile
+			}
+			try {
+				for (Block block : segment.blocks) {
+					if (block.maxTime < fromMillis || block.minTime >= toMillis) continue;
+					if ((block.signature & deviceBits) != deviceBits) continue;
+					DataInputStream in = readBlock(file, block);
+					for (int i = 0; i < block.count; i++) {
+						Record record = readRecord(in);
+						if (record.time >= fromMillis && record.time < toMillis && record.matches(device, eventPrefix)) {
+							result.add(record.toArray());
+						}
+					}
+				}
+			} finally {
+				file.close();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns events filtered by device and event prefix, from the whole log.
+	 *
+	 * @param device - device name, or "" for all devices
+	 * @param eventPrefix - event prefix, or "" for all events
+	 * @return - list of events in array: timestamp, device, eventId, params
+	 * @throws IOException - if log files can't be read
+	 */
+	public List<String[]> query(String device, String eventPrefix) throws IOException {
+		return query(Long.MIN_VALUE, Long.MAX_VALUE, device, eventPrefix);
+	}
+
+	/**
+	 * Returns the newest logged event of each type from each device, like the channel's response to
+	 * <i>MewaConnection.requestLastEvents()</i>.
+	 *
+	 * @param device - device name, or "" for all devices
+	 * @param eventPrefix - event prefix, or "" for all events
+	 * @return - list of events in array: timestamp, device, eventId, params
+	 * @throws IOException - if log files can't be read
+	 */
+	public List<String[]> lastEvents(String device, String eventPrefix) throws IOException {
+		Map<String, String[]> last = new LinkedHashMap<String, String[]>();
+		Map<String, Long> lastTime = new LinkedHashMap<String, Long>();
+		List<String[]> events = query(device, eventPrefix);
+		for (String[] event : events) {
+			String key = event[1] + '\u0000' + event[2];
+			long time;
+			try {
+				time = timestampParser.parseMillis(event[0]);
+			} catch (IllegalArgumentException e) {
+				time = Long.MIN_VALUE;
+			}
+			Long previous = lastTime.get(key);
+			if (previous == null || time >= previous) {
+				last.put(key, event);
+				lastTime.put(key, time);
+			}
+		}
+		return new ArrayList<String[]>(last.values());
+	}
+
+	private List<Segment> snapshot() {
+		segmentsLock.lock();
+		try {
+			List<Segment> copy = new ArrayList<Segment>(segments.size());
+			for (Segment segment : segments) {
+				copy.add(segment.copy());
+			}
+			return copy;
+		} finally {
+			segmentsLock.unlock();
+		}
+	}
+
+	private void writeLoop() {
+		List<Record> batch = new ArrayList<Record>();
+		try {
+			while (!closed) {
+				Record first = queue.poll(RETENTION_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+					queue.drainTo(batch);
+				}
+				try {
+					writeBatch(batch);
+					applyRetention();
+				} catch (IOException e) {
+					e.printStackTrace();
+					closeOutput();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+				for (Record record : batch) {
+					if (record.written != null) {
+						record.written.countDown();
+					}
+				}
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+
+		} finally {
+			queue.drainTo(batch);
+			try {
+				writeBatch(batch);
+			} catch (IOException e) {
+				e.printStackTrace();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+			for (Record record : batch) {
+				if (record.written != null) record.written.countDown();
+			}
+			closeOutput();
+		}
+	}
+
+	/**
+	 * Writes records of the batch and makes them visible to queries. A record that fails with runtime exception, e.g. because
+	 * of a missing field, is skipped and counted, so it doesn't stop the writer thread.
+	 */
+	private void writeBatch(List<Record> batch) throws IOException {
+		for (Record record : batch) {
+			if (record.written != null) continue;
+			try {
+				write(record);
+			} catch (RuntimeException e) {
+				failedCount.incrementAndGet();
+				e.printStackTrace();
+			}
+		}
+		if (output != null) {
+			output.flush();
+		}
+		publishActive();
+	}
+
+	private void write(Record record) throws IOException {
+		Segment active = activeSegment();
+		if (active == null || output == null || outputSize >= segmentBytes) {
+			active = rollSegment();
+		}
+		long offset = outputSize;
+		byte[] bytes = record.encode();
+		output.writeInt(bytes.length);
+		output.write(bytes);
+		outputSize += 4 + bytes.length;
+		active.pending.add(offset, record, keyPool);
+	}
+
+	private Segment activeSegment() {
+		segmentsLock.lock();
+		try {
+			return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		} finally {
+			segmentsLock.unlock();
+		}
+	}
+
+	/**
+	 * Seals the active segment, writing its index, and starts a new one. Called by writer thread.
+	 */
+	private Segment rollSegment() throws IOException {
+		Segment previous = activeSegment();
+		if (output != null && previous != null) {
+			output.flush();
+			publishActive();
+			closeOutput();
+			previous.writeIndex();
+		}
+		long id = previous != null ? previous.id + 1 : 1;
+		Segment segment = new Segment(id, new File(directory, String.format("%020d", id) + SEGMENT_SUFFIX));
+		output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment.file), 64 * 1024));
+		outputSize = 0;
+		segmentsLock.lock();
+		try {
+			segments.add(segment);
+		} finally {
+			segmentsLock.unlock();
+		}
+		return segment;
+	}
+
+	/**
+	 * Makes records written to the active segment visible to queries. Called by writer thread after flushing.
+	 */
+	private void publishActive() {
+		Segment active = activeSegment();
+		if (active == null) return;
+		segmentsLock.lock();
+		try {
+			active.publish(outputSize);
+		} finally {
+			segmentsLock.unlock();
+		}
+	}
+
+	/**
+	 * Deletes segments beyond maximum age or size. The active segment is rolled first when all its events are too old,
+	 * otherwise it would never be deleted while no new events arrive. Called by writer thread.
+	 */
+	private void applyRetention() throws IOException {
+		long now = System.currentTimeMillis();
+		Segment active = activeSegment();
+		if (maxAgeMillis > 0 && active != null && active.count > 0 && active.maxTime < now - maxAgeMillis) {
+			rollSegment();
+		}
+		List<Segment> expired = new ArrayList<Segment>();
+		segmentsLock.lock();
+		try {
+			long total = 0;
+			for (Segment segment : segments) {
+				total += segment.size;
+			}
+			while (segments.size() > 1) {
+				Segment oldest = segments.get(0);
+				boolean tooOld = maxAgeMillis > 0 && oldest.count > 0 && oldest.maxTime < now - maxAgeMillis;
+				boolean tooBig = maxSizeBytes > 0 && total > maxSizeBytes;
+				if (!tooOld && !tooBig) break;
+				segments.remove(0);
+				total -= oldest.size;
+				expired.add(oldest);
+			}
+		} finally {
+			segmentsLock.unlock();
+		}
+		for (Segment segment : expired) {
+			segment.file.delete();
+			segment.indexFile().delete();
+		}
+	}
+
+	private void closeOutput() {
+		if (output == null) return;
+		try {
+			output.close();
+		} catch (IOException e) {
+
+		}
+		output = null;
+	}
+
+	/**
+	 * Loads indexes of existing segments, scanning segments without index. The newest segment stays active.
+	 */
+	private void loadSegments() throws IOException {
+		String[] names = directory.list();
+		if (names == null) throw new IOException("Cannot list directory " + directory);
+		Arrays.sort(names);
+		for (String name : names) {
+			if (!name.endsWith(SEGMENT_SUFFIX)) continue;
+			long id;
+			try {
+				id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			Segment segment = new Segment(id, new File(directory, name));
+			if (!segment.readIndex()) {
+				segment.scan(keyPool);
+			}
+			segments.add(segment);
+		}
+		if (!segments.isEmpty()) {
+			Segment last = segments.get(segments.size() - 1);
+			last.indexFile().delete(); // active again, index rewritten when sealed
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(last.file, true), 64 * 1024));
+			outputSize = last.size;
+		}
+	}
+
+	private static DataInputStream readBlock(RandomAccessFile file, Block block) throws IOException {
+		byte[] bytes = new byte[(int) block.length];
+		file.seek(block.offset);
+		file.readFully(bytes);
+		return new DataInputStream(new ByteArrayInputStream(bytes));
+	}
+
+	private static Record readRecord(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return Record.decode(bytes);
+	}
+
+	/**
+	 * Bloom-like 64 bit signature of a key, for quick block filtering by device.
+	 */
+	private static long signature(String key) {
+		int hash = key.hashCode();
+		hash ^= hash >>> 16;
+		return (1L << (hash & 63)) | (1L << ((hash >>> 6) & 63));
+	}
+
+	/**
+	 * Record - single logged event
+	 */
+	private static class Record {
+		final long time;
+		final String timestamp;
+		final String device;
+		final String eventId;
+		final String params;
+		CountDownLatch written; // set for flush markers
+
+		Record(long time, String timestamp, String device, String eventId, String params) {
+			this.time = time;
+			this.timestamp = timestamp;
+			this.device = device;
+			this.eventId = eventId;
+			this.params = params;
+		}
+
+		boolean matches(String device, String eventPrefix) {
+			return (device.length() == 0 || this.device.equals(device)) && eventId.startsWith(eventPrefix);
+		}
+
+		String[] toArray() {
+			return new String[] { timestamp, device, eventId, params };
+		}
+
+		byte[] encode() throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + params.length());
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeLong(time);
+			writeString(out, timestamp);
+			writeString(out, device);
+			writeString(out, eventId);
+			writeString(out, params);
+			return bytes.toByteArray();
+		}
+
+		static Record decode(byte[] bytes) throws IOException {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			long time = in.readLong();
+			return new Record(time, readString(in), readString(in), readString(in), readString(in));
+		}
+
+		private static void writeString(DataOutputStream out, String value) throws IOException {
+			byte[] bytes = value.getBytes("UTF-8");
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		private static String readString(DataInputStream in) throws IOException {
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			return new String(bytes, "UTF-8");
+		}
+	}
+
+	/**
+	 * Block - index entry for consecutive records of a segment
+	 */
+	private static class Block {
+		long offset;
+		long length;
+		int count;
+		long minTime = Long.MAX_VALUE;
+		long maxTime = Long.MIN_VALUE;
+		long signature;
+
+		Block copy() {
+			Block block = new Block();
+			block.offset = offset;
+			block.length = length;
+			block.count = count;
+			block.minTime = minTime;
+			block.maxTime = maxTime;
+			block.signature = signature;
+			return block;
+		}
+	}
+
+	/**
+	 * PendingIndex - index of records written but not yet published to queries. Used by writer thread only.
+	 */
+	private static class PendingIndex {
+		final List<Block> blocks = new ArrayList<Block>();
+		final Set<String> devices = new HashSet<String>();
+		final Set<String> eventIds = new HashSet<String>();
+
+		void add(long offset, Record record, StringPool pool) {
+			Block block = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+			if (block == null || block.count >= BLOCK_RECORDS || offset - block.offset >= BLOCK_BYTES) {
+				block = new Block();
+				block.offset = offset;
+				blocks.add(block);
+			}
+			block.count++;
+			block.minTime = Math.min(block.minTime, record.time);
+			block.maxTime = Math.max(block.maxTime, record.time);
+			block.signature |= signature(record.device);
+			devices.add(pool.get(record.device));
+			eventIds.add(pool.get(record.eventId));
+		}
+	}
+
+	/**
+	 * Segment - single log file with its index
+	 */
+	private class Segment {
+		final long id;
+		final File file;
+		final List<Block> blocks = new ArrayList<Block>();
+		final Set<String> devices = new HashSet<String>();
+		final Set<String> eventIds = new HashSet<String>();
+		final PendingIndex pending = new PendingIndex();
+		long size;
+		long count;
+		long minTime = Long.MAX_VALUE;
+		long maxTime = Long.MIN_VALUE;
+
+		Segment(long id, File file) {
+			this.id = id;
+			this.file = file;
+		}
+
+		File indexFile() {
+			return new File(directory, String.format("%020d", id) + INDEX_SUFFIX);
+		}
+
+		boolean mayContain(String device, String eventPrefix) {
+			if (device.length() > 0 && !devices.contains(device)) return false;
+			if (eventPrefix.length() == 0) return true;
+			for (String eventId : eventIds) {
+				if (eventId.startsWith(eventPrefix)) return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Moves pending index entries into the visible index, with data written up to given size.
+		 */
+		void publish(long writtenSize) {
+			for (Block block : pending.blocks) {
+				Block last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+				if (last != null && last.offset == block.offset) {
+					blocks.set(blocks.size() - 1, block.copy());
+				} else {
+					blocks.add(block.copy());
+				}
+			}
+			Block open = pending.blocks.isEmpty() ? null : pending.blocks.get(pending.blocks.size() - 1);
+			pending.blocks.clear();
+			if (open != null && open.count < BLOCK_RECORDS) {
+				pending.blocks.add(open); // still filling, republished when it grows
+			}
+			for (int i = 0; i < blocks.size(); i++) {
+				Block block = blocks.get(i);
+				long end = i + 1 < blocks.size() ? blocks.get(i + 1).offset : writtenSize;
+				block.length = end - block.offset;
+			}
+			devices.addAll(pending.devices);
+			eventIds.addAll(pending.eventIds);
+			pending.devices.clear();
+			pending.eventIds.clear();
+			recount(writtenSize);
+		}
+
+		private void recount(long writtenSize) {
+			size = writtenSize;
+			count = 0;
+			minTime = Long.MAX_VALUE;
+			maxTime = Long.MIN_VALUE;
+			for (Block block : blocks) {
+				count += block.count;
+				minTime = Math.min(minTime, block.minTime);
+				maxTime = Math.max(maxTime, block.maxTime);
+			}
+		}
+
+		Segment copy() {
+			Segment segment = new Segment(id, file);
+			for (Block block : blocks) {
+				segment.blocks.add(block.copy());
+			}
+			segment.devices.addAll(devices);
+			segment.eventIds.addAll(eventIds);
+			segment.size = size;
+			segment.count = count;
+			segment.minTime = minTime;
+			segment.maxTime = maxTime;
+			return segment;
+		}
+
+		void writeIndex() throws IOException {
+			File temp = new File(directory, String.format("%020d", id) + INDEX_SUFFIX + ".tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				out.writeInt(INDEX_VERSION);
+				out.writeLong(size);
+				out.writeInt(blocks.size());
+				for (Block block : blocks) {
+					out.writeLong(block.offset);
+					out.writeLong(block.length);
+					out.writeInt(block.count);
+					out.writeLong(block.minTime);
+					out.writeLong(block.maxTime);
+					out.writeLong(block.signature);
+				}
+				writeKeys(out, devices);
+				writeKeys(out, eventIds);
+			} finally {
+				out.close();
+			}
+			if (!temp.renameTo(indexFile())) {
+				temp.delete();
+			}
+		}
+
+		boolean readIndex() {
+			File index = indexFile();
+			if (!index.isFile()) return false;
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+				try {
+					if (in.readInt() != INDEX_VERSION) return false;
+					long indexedSize = in.readLong();
+					if (indexedSize != file.length()) return false;
+					int blockCount = in.readInt();
+					for (int i = 0; i < blockCount; i++) {
+						Block block = new Block();
+						block.offset = in.readLong();
+						block.length = in.readLong();
+						block.count = in.readInt();
+						block.minTime = in.readLong();
+						block.maxTime = in.readLong();
+						block.signature = in.readLong();
+						blocks.add(block);
+					}
+					readKeys(in, devices);
+					readKeys(in, eventIds);
+					recount(indexedSize);
+					return true;
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				blocks.clear();
+				devices.clear();
+				eventIds.clear();
+				return false;
+			}
+		}
+
+		/**
+		 * Rebuilds index by reading the whole segment. A partially written record at the end is cut off.
+		 */
+		void scan(StringPool pool) throws IOException {
+			long offset = 0;
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+			try {
+				while (true) {
+					Record record;
+					int length;
+					try {
+						length = in.readInt();
+						byte[] bytes = new byte[length];
+						in.readFully(bytes);
+						record = Record.decode(bytes);
+					} catch (EOFException e) {
+						break;
+					}
+					pending.add(offset, record, pool);
+					offset += 4 + length;
+				}
+			} finally {
+				in.close();
+			}
+			if (offset < file.length()) {
+				RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+				try {
+					truncate.setLength(offset);
+				} finally {
+					truncate.close();
+				}
+			}
+			publish(offset);
+		}
+
+		private void writeKeys(DataOutputStream out, Set<String> keys) throws IOException {
+			out.writeInt(keys.size());
+			for (String key : keys) {
+				out.writeUTF(key);
+			}
+		}
+
+		private void readKeys(DataInputStream in, Set<String> keys) throws IOException {
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				keys.add(keyPool.get(in.readUTF()));
+			}
+		}
+	}
+}
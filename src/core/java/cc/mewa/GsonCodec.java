@@ -0,0 +1,18 @@
+package cc.mewa;
+
+/**
+ * GsonCodec - default MewaCodec, JSON frames encoded and decoded with Gson tree model.
+ */
+public class GsonCodec implements MewaCodec {
+	private final MewaEncoder encoder = new GsonEncoder();
+
+	@Override
+	public MewaEncoder getEncoder() {
+		return encoder;
+	}
+
+	@Override
+	public MewaDecoder createDecoder() {
+		return new GsonDecoder();
+	}
+}
@@ -0,0 +1,111 @@
+package cc.mewa;
+
+import java.lang.reflect.Type;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * GsonDecoder - decodes JSON frames with Gson tree model. Frames in many parts are scanned by PartialFrameDecoder,
+ * so entries of last events are dispatched while the rest of the frame is still coming.
+ */
+class GsonDecoder implements MewaDecoder {
+	private static final Type DEVICES_TYPE = new TypeToken<List<String>>(){}.getType();
+
+	private final JsonParser parser = new JsonParser();
+	private final Gson gson = new Gson();
+	private MewaDispatcher partialDispatcher;
+	private boolean streamed;
+	private final PartialFrameDecoder partialFrameDecoder = new PartialFrameDecoder() {
+		@Override
+		protected void onArrayStart() {
+			streamed = true;
+			partialDispatcher.onLastEventsStart();
+		}
+
+		@Override
+		protected void onElement(String json) {
+			dispatchLastEvent(parser.parse(json).getAsJsonObject(), partialDispatcher);
+		}
+	};
+
+	@Override
+	public void decodePart(String part, boolean last, MewaDispatcher dispatcher) {
+		if (last && !partialFrameDecoder.isStarted()) {
+			decode(part, dispatcher); // whole frame in one part
+			return;
+		}
+
+		partialDispatcher = dispatcher;
+		partialFrameDecoder.feed(part);
+		if (last) {
+			boolean wasStreamed = streamed;
+			streamed = false;
+			dispatch(partialFrameDecoder.finish(), wasStreamed, dispatcher);
+		}
+	}
+
+	@Override
+	public void decode(String frame, MewaDispatcher dispatcher) {
+		dispatch(frame, false, dispatcher);
+	}
+
+	@Override
+	public void reset() {
+		partialFrameDecoder.reset();
+		streamed = false;
+	}
+
+	/**
+	 * Decodes complete frame.
+	 *
+	 * @param msg - frame from channel
+	 * @param streamed - whether entries of last events were already dispatched by PartialFrameDecoder
+	 * @param dispatcher - receiver of decoded frame
+	 */
+	private void dispatch(String msg, boolean streamed, MewaDispatcher dispatcher) {
+		JsonObject jsonObject = parser.parse(msg).getAsJsonObject();
+		String message = jsonObject.get("type").getAsString();
+		if (message.equals("event")) {
+			dispatcher.onEvent(jsonObject.get("time").getAsString(), jsonObject.get("device").getAsString(),
+					jsonObject.get("id").getAsString(), jsonObject.get("params").getAsString());
+		} else if (message.equals("message")) {
+			dispatcher.onMessage(jsonObject.get("time").getAsString(), jsonObject.get("device").getAsString(),
+					jsonObject.get("id").getAsString(), jsonObject.get("params").getAsString());
+		} else if (message.equals("ack")) {
+			dispatcher.onAck();
+		} else if (message.equals("joined-channel")) {
+			dispatcher.onDeviceJoinedChannel(jsonObject.get("time").getAsString(), jsonObject.get("device").getAsString());
+		} else if (message.equals("left-channel")) {
+			dispatcher.onDeviceLeftChannel(jsonObject.get("time").getAsString(), jsonObject.get("device").getAsString());
+		} else if (message.equals("last-events")) {
+			if (!streamed) {
+				dispatcher.onLastEventsStart();
+				JsonArray array = jsonObject.get("events").getAsJsonArray();
+				for (int i = 0; i < array.size(); i++) {
+					dispatchLastEvent(array.get(i).getAsJsonObject(), dispatcher);
+				}
+			}
+			dispatcher.onLastEventsEnd(jsonObject.get("time").getAsString());
+		} else if (message.equals("connected")) {
+			dispatcher.onConnected();
+		} else if (message.equals("disconnected")) {
+			dispatcher.onDisconnected();
+		} else if (message.equals("devices-event")) {
+			List<String> devicesList = gson.fromJson(jsonObject.get("devices"), DEVICES_TYPE);
+			dispatcher.onDevicesEvent(jsonObject.get("time").getAsString(), devicesList);
+		} else if (message.equals("already-connected-error") || message.equals("authorization-error")
+				|| message.equals("not-connected-error")) {
+			dispatcher.onError(message);
+		}
+	}
+
+	private void dispatchLastEvent(JsonObject object, MewaDispatcher dispatcher) {
+		dispatcher.onLastEvent(object.get("time").getAsString(), object.get("device").getAsString(),
+				object.get("id").getAsString(), object.get("params").getAsString());
+	}
+}
@@ -5,22 +5,14 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 
 /**
- * Protocol - helper class for sending messages
+ * GsonEncoder - encodes requests as JSON with Gson tree model
  * 
  * @author ashiren
  */
-class Protocol {
+class GsonEncoder implements MewaEncoder {
 	
-	public static String connect(String channel,String device, String password) {
-		JsonObject jsonObject = new JsonObject();
-		jsonObject.addProperty("type", "connect");
-		jsonObject.addProperty("channel", channel);
-		jsonObject.addProperty("device", device);
-		jsonObject.addProperty("password", password);
-		return jsonObject.toString();
-	}
-	
-	public static String connect(String channel,String device, String password, String[] subscribedEvents) {
+	@Override
+	public String connect(String channel,String device, String password, String[] subscribedEvents) {
 		JsonObject jsonObject = new JsonObject();
 		jsonObject.addProperty("type", "connect");
 		jsonObject.addProperty("channel", channel);
@@ -36,23 +28,30 @@ class Protocol {
 		return jsonObject.toString();
 	}
 	
-	public static String disconnect() {
+	@Override
+	public String disconnect() {
 		return "{\"type\": \"disconnect\"}";
 	}
 		
-	public static String getDevices() {
+	@Override
+	public String getDevices() {
 		return "{\"type\": \"get-devices\"}";
 	}
 	
-	public static String getLastEvents(String device, String prefix) {
+	@Override
+	public String getLastEvents(String device, String prefix, String since) {
 		JsonObject jsonObject = new JsonObject();
 		jsonObject.addProperty("type", "get-last-events");
 		jsonObject.addProperty("device", device);
 		jsonObject.addProperty("prefix", prefix);
+		if (since != null) {
+			jsonObject.addProperty("since", since);
+		}
 		return jsonObject.toString();
 	}
 	
-	public static String sendEvent(String eventId, String params, boolean ack) {		
+	@Override
+	public String sendEvent(String eventId, String params, boolean ack) {		
 		JsonObject jsonObject = new JsonObject();
 		jsonObject.addProperty("type", "send-event");
 		jsonObject.addProperty("id", eventId);
@@ -61,7 +60,8 @@ class Protocol {
 		return jsonObject.toString();
 	}
 	
-	public static String sendMessage(String device, String msgId, String params) {		
+	@Override
+	public String sendMessage(String device, String msgId, String params) {		
 		JsonObject jsonObject = new JsonObject();
 		jsonObject.addProperty("type", "send-message");
 		jsonObject.addProperty("device", device);
@@ -70,8 +70,4 @@ class Protocol {
 		return jsonObject.toString();
 	}
 
-	private Protocol() {
-		
-	}
-
 }
@@ -0,0 +1,34 @@
+package cc.mewa;
+
+/**
+ * ListenerMask - bits selecting callbacks an OnMessageListener receives, for <i>MewaConnection.addOnMessageListener()</i>.
+ * Combine with |, e.g. ListenerMask.EVENT | ListenerMask.CLOSED.
+ */
+public final class ListenerMask {
+	/** <i>onEvent()</i> */
+	public static final int EVENT = 1;
+	/** <i>onMessage()</i> */
+	public static final int MESSAGE = 1 << 1;
+	/** <i>onAck()</i> */
+	public static final int ACK = 1 << 2;
+	/** <i>onDeviceJoinedChannel()</i> */
+	public static final int JOINED_CHANNEL = 1 << 3;
+	/** <i>onDeviceLeftChannel()</i> */
+	public static final int LEFT_CHANNEL = 1 << 4;
+	/** <i>onLastEvents()</i> */
+	public static final int LAST_EVENTS = 1 << 5;
+	/** <i>onDevicesEvent()</i> */
+	public static final int DEVICES_EVENT = 1 << 6;
+	/** <i>onConnected()</i> */
+	public static final int CONNECTED = 1 << 7;
+	/** <i>onClosed()</i> */
+	public static final int CLOSED = 1 << 8;
+	/** <i>onError()</i> */
+	public static final int ERROR = 1 << 9;
+	/** All callbacks. */
+	public static final int ALL = (1 << 10) - 1;
+
+	private ListenerMask() {
+
+	}
+}
@@ -0,0 +1,260 @@
+package cc.mewa;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ListenerRegistry - copy-on-write set of OnMessageListeners of one connection.
+ * <p>
+ * Dispatch reads the current array without locking. Each listener gets only callbacks selected by its ListenerMask.
+ * An exception thrown by a listener is printed and counted, and doesn't stop other listeners or frame processing.
+ * A listener with its own Executor is called there, holding PowerHook until it returns, so it can't delay other listeners.
+ * Callbacks of OnLastEventsStreamListener are isolated the same way, on the calling thread.
+ */
+final class ListenerRegistry {
+	private static final Registration[] EMPTY = new Registration[0];
+
+	private volatile Registration[] registrations = EMPTY;
+	private final AtomicLong streamFailures = new AtomicLong(); // thrown by OnLastEventsStreamListener
+
+	/**
+	 * Adds listener, or replaces mask and executor of already added one.
+	 */
+	synchronized void add(OnMessageListener listener, int mask, Executor executor) {
+		Registration registration = new Registration(listener, mask, executor);
+		Registration[] current = registrations;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i].listener == listener) {
+				Registration[] updated = current.clone();
+				registration.failures.set(current[i].failures.get());
+				updated[i] = registration;
+				registrations = updated;
+				return;
+			}
+		}
+		Registration[] updated = new Registration[current.length + 1];
+		System.arraycopy(current, 0, updated, 0, current.length);
+		updated[current.length] = registration;
+		registrations = updated;
+	}
+
+	synchronized boolean remove(OnMessageListener listener) {
+		Registration[] current = registrations;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i].listener == listener) {
+				Registration[] updated = new Registration[current.length - 1];
+				System.arraycopy(current, 0, updated, 0, i);
+				System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+				registrations = updated;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	synchronized void clear() {
+		registrations = EMPTY;
+	}
+
+	/**
+	 * Returns number of exceptions thrown by the listener, or by all listeners if null, including OnLastEventsStreamListener.
+	 */
+	long getFailureCount(OnMessageListener listener) {
+		long count = listener == null ? streamFailures.get() : 0;
+		for (Registration registration : registrations) {
+			if (listener == null || registration.listener == listener) {
+				count += registration.failures.get();
+			}
+		}
+		return count;
+	}
+
+	void fireEvent(final String time, final String device, final String eventId, final String params, PowerHook hook) {
+		fire(ListenerMask.EVENT, new Call() {
+			@Override
+			void invoke(OnMessageListener listener) {
+				listener.onEvent(time, device, eventId, params);
+			}
+		}, hook);
+	}
+
+	void fireMessage(final String time, final String device, final String msgId, final String params, PowerHook hook) {
+		fire(ListenerMask.MESSAGE, new Call() {
+			@Override
+			void invoke(OnMessageListener listener) {
+				listener.onMessage(time, device, msgId, params);
+			}
+		}, hook);
+	}
+
+	void fireAck(PowerHook hook) {
+		fire(ListenerMask.ACK, new Call() {
+			@Override
+			void invoke(OnMessageListener listener) {
+				listener.onAck();
+			}
+		}, hook);
+	}
+
+	void fireDeviceJoinedChannel(final String time, final String device, PowerHook hook) {
+		fire(ListenerMask.JOINED_CHANNEL, new Call() {
+			@Override
+			void invoke(OnMessageListener listener) {
+				listener.onDeviceJoinedChannel(time, device);
+			}
+		}, hook);
+	}
+
+	void fireDeviceLeftChannel(final String time, final String device, PowerHook hook) {
+		fire(ListenerMask.LEFT_CHANNEL, new Call() {
+			@Override
+			void invoke(OnMessageListener listener) {
+				listener.onDeviceLeftChannel(time, device);
+			}
+		}, hook);
+	}
+
+	void fireLastEvents(final String time, final List<String[]> events, PowerHook hook) {
+		fire(ListenerMask.LAST_EVENTS, new Call() {
+			@Override
+			void invoke(OnMessageListener listener) {
+				listener.onLastEvents(time, events);
+			}
+		}, hook);
+	}
+
+	void fireDevicesEvent(final String time, final List<String> devices, PowerHook hook) {
+		fire(ListenerMask.DEVICES_EVENT, new Call() {
+			@Override
+			void invoke(OnMessageListener listener) {
+				listener.onDevicesEvent(time, devices);
+			}
+		}, hook);
+	}
+
+	void fireConnected(PowerHook hook) {
+		fire(ListenerMask.CONNECTED, new Call() {
+			@Override
+			void invoke(OnMessageListener listener) {
+				listener.onConnected();
+			}
+		}, hook);
+	}
+
+	void fireClosed(PowerHook hook) {
+		fire(ListenerMask.CLOSED, new Call() {
+			@Override
+			void invoke(OnMessageListener listener) {
+				listener.onClosed();
+			}
+		}, hook);
+	}
+
+	void fireError(final String reason, PowerHook hook) {
+		fire(ListenerMask.ERROR, new Call() {
+			@Override
+			void invoke(OnMessageListener listener) {
+				listener.onError(reason);
+			}
+		}, hook);
+	}
+
+	void fireLastEventsStart(OnLastEventsStreamListener streamListener) {
+		try {
+			streamListener.onLastEventsStart();
+		} catch (RuntimeException e) {
+			streamFailed(e);
+		}
+	}
+
+	void fireLastEvent(OnLastEventsStreamListener streamListener, String time, String device, String eventId, String params) {
+		try {
+			streamListener.onLastEvent(time, device, eventId, params);
+		} catch (RuntimeException e) {
+			streamFailed(e);
+		}
+	}
+
+	void fireLastEventsEnd(OnLastEventsStreamListener streamListener, String time) {
+		try {
+			streamListener.onLastEventsEnd(time);
+		} catch (RuntimeException e) {
+			streamFailed(e);
+		}
+	}
+
+	private void streamFailed(RuntimeException e) {
+		streamFailures.incrementAndGet();
+		e.printStackTrace();
+	}
+
+	private void fire(int type, Call call, PowerHook hook) {
+		for (Registration registration : registrations) {
+			if ((registration.mask & type) == 0) continue;
+			if (registration.executor == null) {
+				registration.invoke(call);
+			} else {
+				registration.submit(call, hook);
+			}
+		}
+	}
+
+	/**
+	 * Call - single callback of OnMessageListener
+	 */
+	private abstract static class Call {
+		abstract void invoke(OnMessageListener listener);
+	}
+
+	/**
+	 * Registration - listener with its mask, executor and exception counter
+	 */
+	private static class Registration {
+		final OnMessageListener listener;
+		final int mask;
+		final Executor executor;
+		final AtomicLong failures = new AtomicLong();
+
+		Registration(OnMessageListener listener, int mask, Executor executor) {
+			this.listener = listener;
+			this.mask = mask;
+			this.executor = executor;
+		}
+
+		void invoke(Call call) {
+			try {
+				call.invoke(listener);
+			} catch (RuntimeException e) {
+				failures.incrementAndGet();
+				e.printStackTrace();
+			}
+		}
+
+		void submit(final Call call, final PowerHook hook) {
+			if (hook != null) {
+				hook.acquire();
+			}
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							invoke(call);
+						} finally {
+							if (hook != null) {
+								hook.release();
+							}
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				failures.incrementAndGet();
+				if (hook != null) {
+					hook.release();
+				}
+			}
+		}
+	}
+}
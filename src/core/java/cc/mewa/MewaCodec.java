@@ -0,0 +1,21 @@
+package cc.mewa;
+
+/**
+ * MewaCodec - payload format of frames exchanged with the channel. Set by <i>MewaConnection.setCodec()</i>,
+ * the default one is GsonCodec.
+ */
+public interface MewaCodec {
+	/**
+	 * Returns encoder of outgoing frames. It may be shared by connections.
+	 *
+	 * @return - a MewaEncoder
+	 */
+	MewaEncoder getEncoder();
+
+	/**
+	 * Creates decoder of incoming frames, for one connection.
+	 *
+	 * @return - a new MewaDecoder
+	 */
+	MewaDecoder createDecoder();
+}
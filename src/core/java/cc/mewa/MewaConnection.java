@@ -0,0 +1,1450 @@
+package cc.mewa;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.websocket.ClientEndpoint;
+import javax.websocket.DeploymentException;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
+import javax.websocket.OnMessage;
+import javax.websocket.OnOpen;
+import javax.websocket.PongMessage;
+import javax.websocket.Session;
+
+import org.glassfish.tyrus.client.ClientManager;
+
+/**
+ * MewaConnection - WebSocket client implementation for mewa api.
+ * 
+ * @author Jacek Dermont
+ */
+@ClientEndpoint
+public class MewaConnection {
+	/**
+	 * InitConnectionException - an exception raised during initializing connection
+	 */
+	public class InitConnectionException extends Exception {
+		private static final long serialVersionUID = 7864421347737698156L;
+
+		public InitConnectionException() {
+			
+		}
+
+		public InitConnectionException(String message) {
+			super(message);
+		}
+	}
+
+	private volatile String uri;
+	private final Endpoints endpoints;
+	private String channel;
+	private String device;
+	private String password;
+	private String[] subscribedEvents;
+	private long idleTimeout;
+	private volatile long heartbeatInterval;
+	private volatile int probeTimeout = 3000;
+	private volatile long pingSentNanos;
+	private volatile boolean connected;
+	private volatile boolean connectionEnded = true;
+	private volatile String connectError;
+	private ClientManager client;
+	private volatile Session session;
+	private volatile String connectFrame; // precomputed by connect()
+	private long connectCalledNanos;
+	private long connectStartNanos;
+	private long resolvedNanos;
+	private volatile long openedNanos;
+	private volatile ConnectTimings connectTimings;
+	private volatile PowerHook powerHook;
+	
+	private WSListenerThread listenerThread;
+	private final ListenerRegistry listeners = new ListenerRegistry();
+	private EventDeduplicator eventDeduplicator;
+	private volatile EventLog eventLog;
+	private final ResumePoints resumePoints = new ResumePoints();
+	private volatile boolean sessionResume;
+	private StringPool stringPool = new StringPool(256);
+	private OnLastEventsStreamListener onLastEventsStreamListener;
+	private volatile MewaCodec codec = new GsonCodec();
+	private volatile MewaEncoder encoder = codec.getEncoder();
+	private MewaDecoder decoder = codec.createDecoder();
+	private MewaCodec decoderCodec = codec; // codec which created decoder
+	private final ChannelDispatcher dispatcher = new ChannelDispatcher();
+	
+	private static final long SEND_TIMEOUT_MILLIS = 10000;
+	private static final long REPLY_CHECK_MILLIS = 1000; // how often replies are checked for deadline
+	private final ReentrantLock requestLock = new ReentrantLock(); // keeps order of sent requests and awaited replies the same
+	private final Queue<MewaFuture<List<String>>> devicesReplies = new ConcurrentLinkedQueue<MewaFuture<List<String>>>();
+	private final Queue<LastEventsReply> lastEventsReplies = new ConcurrentLinkedQueue<LastEventsReply>();
+	private MewaFuture<List<String>> devicesFuture; // in flight or cached, guarded by requestLock
+	private final ConcurrentMap<String, LastEventsReply> lastEventsFutures = new ConcurrentHashMap<String, LastEventsReply>(); // in flight or cached
+	private volatile long responseCacheTtl;
+	private volatile long replyTimeout = 30000;
+	private final ReentrantLock stateLock = new ReentrantLock();
+	private final Condition stateChanged = stateLock.newCondition();
+	private volatile BlockingQueue<MewaFrame> receiveQueue;
+	private final AtomicLong droppedFrames = new AtomicLong();
+		
+	/**
+	 * Constructor for MewaConnection. Takes WebSocket URI, channel name, device name and channel password as parameters.
+	 * Example: new MewaClient("ws://localhost/ws","user.channel1","java","password1")
+	 * 
+	 * @param uri - WebSocket URI
+	 * @param channel - channel name
+	 * @param device - device name
+	 * @param password - channel password
+	 */
+	public MewaConnection(String uri, String channel, String device, String password) {
+		this(new String[] { uri }, channel, device, password);
+	}
+	
+	/**
+	 * Constructor for MewaConnection with alternative servers, e.g. regional nodes. <i>connect()</i> measures TCP connect time
+	 * to each of them and connects to the fastest healthy one, going to the next when it fails. Endpoints that failed
+	 * are avoided for a while, and heartbeat RTT (see <i>setHeartbeatInterval()</i>) and errors adjust the order later.
+	 * Example: new MewaConnection(new String[] {"wss://eu.mewa.cc/ws", "wss://us.mewa.cc/ws"},"user.channel1","java","password1")
+	 * 
+	 * @param uris - WebSocket URIs, in order of preference when equally fast
+	 * @param channel - channel name
+	 * @param device - device name
+	 * @param password - channel password
+	 */
+	public MewaConnection(String[] uris, String channel, String device, String password) {
+		this.endpoints = new Endpoints(uris);
+		this.uri = uris[0];
+		this.channel = channel;
+		this.device = device;
+		this.password = password;
+		connected = false;
+		client = SharedClient.get(URI.create(uri));
+	}
+	
+	/**
+	 * Prepares for fast connect, e.g. when a screen that will need the channel opens. On background threads it resolves
+	 * host of the URI, loads WebSocket and JSON classes and, for wss, makes a TLS session that the connect resumes.
+	 * The platform caches resolved hosts only briefly, so call it shortly before <i>connect()</i>. Returns immediately.
+	 * 
+	 * @param uri - WebSocket URI that will be connected to
+	 */
+	public static void prewarm(String uri) {
+		SharedClient.prewarm(URI.create(uri));
+	}
+
+	/**
+	 * Returns host URI, the one connected to, or last tried, if there are alternative servers.
+	 * 
+	 * @return - host URI
+	 */
+	public String getUri() {
+		return uri;
+	}
+
+	/**
+	 * Returns channel name.
+	 * 
+	 * @return - channel name
+	 */
+	public String getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Returns device name.
+	 * 
+	 * @return - device name
+	 */
+	public String getDevice() {
+		return device;
+	}
+
+	/**
+	 * Returns channel password.
+	 * 
+	 * @return - channel password
+	 */
+	public String getPassword() {
+		return password;
+	}
+	
+	/**
+	 * Returns idle timeout.
+	 * 
+	 * @return - timeout in milliseconds. 0 for no timeout
+	 */
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+	
+	/**
+	 * Sets idle timeout in milliseconds. Client will close if it doesn't send or receive any data.
+	 * 
+	 * @param idleTimeout - idle timeout in milliseconds. 0 for no timeout
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+		if (session != null) session.setMaxIdleTimeout(idleTimeout);
+	}
+	
+	/**
+	 * Returns server URIs from the most to the least preferred one, by measured latency and errors.
+	 * 
+	 * @return - list of URIs
+	 */
+	public List<String> getEndpoints() {
+		return endpoints.order();
+	}
+	
+	/**
+	 * Sets time limit of measuring TCP connect time to alternative servers. Default is 3000 milliseconds.
+	 * 
+	 * @param probeTimeout - timeout in milliseconds
+	 */
+	public void setProbeTimeout(int probeTimeout) {
+		this.probeTimeout = probeTimeout;
+	}
+	
+	/**
+	 * Sets interval of WebSocket pings. Their round trip time is used to choose server, when there are alternative ones,
+	 * and a ping unanswered until the next one counts as error of the server. Takes effect from the next connect.
+	 * 
+	 * @param heartbeatInterval - interval in milliseconds. 0 for no pings
+	 */
+	public void setHeartbeatInterval(long heartbeatInterval) {
+		this.heartbeatInterval = heartbeatInterval;
+	}
+	
+	/**
+	 * Sets MewaCodec, format of frames exchanged with the channel. Takes effect from the next connect. Default is GsonCodec.
+	 * 
+	 * @param codec - a MewaCodec
+	 */
+	public void setCodec(MewaCodec codec) {
+		this.codec = codec;
+		connectFrame = null;
+	}
+	
+	/**
+	 * Sets OnMessageListener (or OnMessageAdapter), which will listen on incoming events. Set null to remove any OnMessageListeners.
+	 * Replaces listeners added by <i>addOnMessageListener()</i>.
+	 * 
+	 * @param onMessageListener - An OnMessageListener (or OnMessageAdapter)
+	 */
+	public void setOnMessageListener(OnMessageListener onMessageListener) {
+		listeners.clear();
+		if (onMessageListener != null) {
+			listeners.add(onMessageListener, ListenerMask.ALL, null);
+		}
+	}
+	
+	/**
+	 * Adds OnMessageListener receiving all callbacks. Listeners are called in order of adding; exception thrown
+	 * by one of them is printed and counted, and the others are still called.
+	 * 
+	 * @param onMessageListener - An OnMessageListener (or OnMessageAdapter)
+	 */
+	public void addOnMessageListener(OnMessageListener onMessageListener) {
+		listeners.add(onMessageListener, ListenerMask.ALL, null);
+	}
+	
+	/**
+	 * Adds OnMessageListener receiving only selected callbacks. Adding the same listener again changes its mask.
+	 * 
+	 * @param onMessageListener - An OnMessageListener (or OnMessageAdapter)
+	 * @param mask - ListenerMask bits
+	 */
+	public void addOnMessageListener(OnMessageListener onMessageListener, int mask) {
+		listeners.add(onMessageListener, mask, null);
+	}
+	
+	/**
+	 * Adds OnMessageListener receiving only selected callbacks on its own Executor, so it doesn't delay other listeners
+	 * and frame processing. Use single thread executor to keep callbacks in order. PowerHook is held until the callback returns.
+	 * 
+	 * @param onMessageListener - An OnMessageListener (or OnMessageAdapter)
+	 * @param mask - ListenerMask bits
+	 * @param executor - executor running the callbacks, or null to call them on WebSocket thread
+	 */
+	public void addOnMessageListener(OnMessageListener onMessageListener, int mask, Executor executor) {
+		listeners.add(onMessageListener, mask, executor);
+	}
+	
+	/**
+	 * Removes OnMessageListener.
+	 * 
+	 * @param onMessageListener - An OnMessageListener (or OnMessageAdapter)
+	 * @return - false if the listener wasn't added
+	 */
+	public boolean removeOnMessageListener(OnMessageListener onMessageListener) {
+		return listeners.remove(onMessageListener);
+	}
+	
+	/**
+	 * Returns number of exceptions thrown by the listener, including rejected executions of its callbacks.
+	 * 
+	 * @param onMessageListener - An OnMessageListener, or null for all listeners including OnLastEventsStreamListener
+	 * @return - number of exceptions
+	 */
+	public long getListenerFailureCount(OnMessageListener onMessageListener) {
+		return listeners.getFailureCount(onMessageListener);
+	}
+	
+	/**
+	 * Sets EventDeduplicator, which will filter out already received events before they reach OnMessageListener.
+	 * It applies to <i>OnMessageListener.onEvent()</i> and to entries of <i>OnMessageListener.onLastEvents()</i>. Set null to disable.
+	 * 
+	 * @param eventDeduplicator - an EventDeduplicator
+	 */
+	public void setEventDeduplicator(EventDeduplicator eventDeduplicator) {
+		this.eventDeduplicator = eventDeduplicator;
+	}
+	
+	/**
+	 * Sets EventLog, which will store received events on disk, including entries of last events.
+	 * Events filtered out by EventDeduplicator are not stored. Writing happens on the log's own thread. Set null to disable.
+	 * 
+	 * @param eventLog - an EventLog
+	 */
+	public void setEventLog(EventLog eventLog) {
+		this.eventLog = eventLog;
+	}
+	
+	/**
+	 * Enables session resume. The connection remembers timestamp of the newest event processed for each subscribed prefix.
+	 * After joining the channel again, it requests last events at or after that timestamp for each prefix, so events
+	 * sent during the outage are delivered to <i>OnMessageListener.onLastEvents()</i> before or among new ones.
+	 * Only what changed during the outage is sent, not whole history. Events at the resume timestamp itself are sent again,
+	 * use EventDeduplicator to filter them out. Until the replay arrives, resume points don't move, so if the connection
+	 * is lost again meanwhile, the next replay starts from the same point. Disabled by default.
+	 * 
+	 * @param sessionResume - true to replay missed events after reconnect
+	 */
+	public void setSessionResume(boolean sessionResume) {
+		this.sessionResume = sessionResume;
+	}
+	
+	/**
+	 * Returns timestamp of the newest event processed for the subscribed prefix, from which session resume will replay.
+	 * It can be stored and restored with <i>setResumeTimestamp()</i> when the application restarts.
+	 * 
+	 * @param eventPrefix - subscribed event prefix, "" if subscribed to all events
+	 * @return - ISO 8601 timestamp, or null if no event was processed
+	 */
+	public String getResumeTimestamp(String eventPrefix) {
+		return resumePoints.get(eventPrefix);
+	}
+	
+	/**
+	 * Sets timestamp from which session resume will replay events of the subscribed prefix, e.g. the one stored
+	 * before the application was closed. Null forgets it, so nothing is replayed for the prefix.
+	 * 
+	 * @param eventPrefix - subscribed event prefix, "" if subscribed to all events
+	 * @param timestamp - ISO 8601 timestamp as sent by the channel, or null
+	 * @throws IllegalArgumentException - if timestamp is not valid ISO 8601
+	 */
+	public void setResumeTimestamp(String eventPrefix, String timestamp) {
+		resumePoints.set(eventPrefix, timestamp);
+	}
+	
+	/**
+	 * Sets OnLastEventsStreamListener, which will receive last events one by one while the response is being received,
+	 * instead of the whole list in <i>OnMessageListener.onLastEvents()</i>. Large responses then don't have to fit in memory at once.
+	 * Set null to go back to <i>OnMessageListener.onLastEvents()</i>.
+	 * 
+	 * @param onLastEventsStreamListener - An OnLastEventsStreamListener
+	 */
+	public void setOnLastEventsStreamListener(OnLastEventsStreamListener onLastEventsStreamListener) {
+		this.onLastEventsStreamListener = onLastEventsStreamListener;
+	}
+	
+	/**
+	 * Sets StringPool used for device names, event and message types of incoming frames. Equal names are then delivered
+	 * as the same instance. By default each connection has its own pool of 256 entries. Set null to disable pooling.
+	 * 
+	 * @param stringPool - a StringPool
+	 */
+	public void setStringPool(StringPool stringPool) {
+		this.stringPool = stringPool;
+	}
+	
+	/**
+	 * Returns StringPool used for incoming frames.
+	 * 
+	 * @return - StringPool, or null if disabled
+	 */
+	public StringPool getStringPool() {
+		return stringPool;
+	}
+	
+	/**
+	 * The connection will receive all events from channel. It will work after establishing new connection.
+	 */
+	public void subscribeToAllEvents() {
+		subscribeToEvents(new String[] { "" });
+	}
+	
+	/**
+	 * The connection will receive all events that start from specified prefixes in String Array. It will work after establishing new connection.
+	 * Resume points of prefixes that stay subscribed are kept, the others are forgotten.
+	 * 
+	 * @param subscribedEvents - String Array of events prefixes
+	 */
+	public void subscribeToEvents(String[] subscribedEvents) {
+		this.subscribedEvents = subscribedEvents;
+		connectFrame = null;
+		resumePoints.retain(subscribedEvents);
+	}
+	
+	/**
+	 * Sets PowerHook to be acquired during listener processing, e.g. Android's wake lock. Set null to remove it.
+	 * 
+	 * @param powerHook - a PowerHook
+	 */
+	public void setPowerHook(PowerHook powerHook) {
+		this.powerHook = powerHook;
+	}
+	
+	/**
+	 * Returns how long phases of the last connect took. Available after joining the channel.
+	 * 
+	 * @return - ConnectTimings, or null if not connected yet
+	 */
+	public ConnectTimings getConnectTimings() {
+		return connectTimings;
+	}
+	
+	/**
+	 * Checks if the client is connected to the channel. May return false, while the WebSocket itself is still alive.
+	 *  
+	 * @return Returns whether is connected to channel or not.
+	 */
+	public boolean isConnectedToChannel() {
+		return connected;
+	}
+	
+	/**
+	 * Waits until the channel accepts this device. Returns early if the channel refuses it or the connection closes.
+	 * Safe to call from many threads, including virtual threads.
+	 * 
+	 * @param timeout - maximum time to wait
+	 * @param unit - unit of timeout
+	 * @return - whether is connected to channel
+	 * @throws InterruptedException - if interrupted while waiting
+	 */
+	public boolean awaitConnected(long timeout, TimeUnit unit) throws InterruptedException {
+		long remaining = unit.toNanos(timeout);
+		stateLock.lock();
+		try {
+			while (!connected && !connectionEnded && connectError == null && remaining > 0) {
+				remaining = stateChanged.awaitNanos(remaining);
+			}
+		} finally {
+			stateLock.unlock();
+		}
+		return connected;
+	}
+	
+	/**
+	 * Enables or disables queueing of incoming frames for <i>receive()</i>. When the queue is full, the oldest frame is dropped.
+	 * Frames are queued whether or not OnMessageListener is set.
+	 * 
+	 * @param capacity - maximum number of queued frames, or 0 to disable queueing
+	 */
+	public void setReceiveQueueCapacity(int capacity) {
+		receiveQueue = capacity > 0 ? new ArrayBlockingQueue<MewaFrame>(capacity) : null;
+	}
+	
+	/**
+	 * Returns number of frames dropped because the receive queue was full.
+	 * 
+	 * @return - number of dropped frames
+	 */
+	public long getDroppedFrameCount() {
+		return droppedFrames.get();
+	}
+	
+	/**
+	 * Waits for next frame from the channel. Queueing has to be enabled with <i>setReceiveQueueCapacity()</i>.
+	 * After the connection closes and queued frames are taken, a frame of type <i>MewaFrame.CLOSED</i> is returned
+	 * to every call, until the next connect.
+	 * Safe to call from many threads, including virtual threads; each other frame is returned to one of them.
+	 * 
+	 * @return - next frame
+	 * @throws InterruptedException - if interrupted while waiting
+	 */
+	public MewaFrame receive() throws InterruptedException {
+		BlockingQueue<MewaFrame> queue = requireReceiveQueue();
+		return received(connectionEnded ? queue.poll() : queue.take());
+	}
+	
+	/**
+	 * Waits for next frame from the channel, up to given time. See <i>receive()</i>.
+	 * 
+	 * @param timeout - maximum time to wait
+	 * @param unit - unit of timeout
+	 * @return - next frame, or null if time elapsed
+	 * @throws InterruptedException - if interrupted while waiting
+	 */
+	public MewaFrame receive(long timeout, TimeUnit unit) throws InterruptedException {
+		BlockingQueue<MewaFrame> queue = requireReceiveQueue();
+		return received(connectionEnded ? queue.poll() : queue.poll(timeout, unit));
+	}
+	
+	/**
+	 * Keeps end of stream for other receivers: puts taken CLOSED frame back, or makes one if the queue is empty.
+	 */
+	private MewaFrame received(MewaFrame frame) {
+		if (!connectionEnded) return frame;
+		if (frame == null) return MewaFrame.of(MewaFrame.CLOSED);
+		if (frame.getType().equals(MewaFrame.CLOSED)) {
+			offerFrame(frame);
+		}
+		return frame;
+	}
+	
+	private BlockingQueue<MewaFrame> requireReceiveQueue() {
+		BlockingQueue<MewaFrame> queue = receiveQueue;
+		if (queue == null) {
+			throw new IllegalStateException("receive queue is disabled, see setReceiveQueueCapacity()");
+		}
+		return queue;
+	}
+	
+	/**
+	 * Connects or, if active, reconnects to the channel. Whether the channel actually accepts this device will be notified by
+	 * <i>OnMessageListener.onConnected()</i> or <i>OnMessageListener.onError()</i>.
+	 * With alternative servers, they are tried from the most preferred one, until WebSocket opens.
+	 * 
+	 * @throws InitConnectionException - if some errors occured during connection initialization, with all servers
+	 */
+	public void connect() throws InitConnectionException {
+		if (session != null && session.isOpen()) {
+			close();
+		}
+		
+		connectCalledNanos = System.nanoTime();
+		if (endpoints.size() > 1 && endpoints.hasUnknown()) {
+			endpoints.probe(probeTimeout);
+		}
+		InitConnectionException failure = null;
+		for (String candidate : endpoints.order()) {
+			try {
+				openSession(candidate);
+				return;
+			} catch (InitConnectionException e) {
+				endpoints.recordFailure(candidate);
+				failure = e;
+			}
+		}
+		throw failure;
+	}
+	
+	/**
+	 * Opens WebSocket to the server and starts listener thread.
+	 * 
+	 * @param candidate - WebSocket URI
+	 * @throws InitConnectionException - if the WebSocket couldn't be opened
+	 */
+	private void openSession(String candidate) throws InitConnectionException {
+		encoder = codec.getEncoder();
+		if (decoderCodec != codec) {
+			decoderCodec = codec;
+			decoder = codec.createDecoder();
+		} else {
+			decoder.reset(); // frame cut by previous connection mustn't prefix the next one
+		}
+		connectionEnded = false;
+		connectError = null;
+		connectTimings = null;
+		pingSentNanos = 0;
+		
+		connectStartNanos = System.nanoTime();
+		if (connectFrame == null) {
+			connectFrame = encoder.connect(channel, device, password, subscribedEvents);
+		}
+		uri = candidate;
+		URI target = URI.create(candidate);
+		client = SharedClient.get(target);
+		SharedClient.resolve(target);
+		resolvedNanos = System.nanoTime();
+		try {
+			session = client.connectToServer(MewaConnection.this, target);
+			session.setMaxIdleTimeout(idleTimeout);
+		} catch (DeploymentException e) {
+			throw openFailed(e);
+		} catch (IOException e) {
+			throw openFailed(e);
+		}
+
+		listenerThread = new WSListenerThread();
+		listenerThread.start();
+	}
+	
+	/**
+	 * Ends the connection that didn't open, so <i>awaitConnected()</i> returns.
+	 */
+	private InitConnectionException openFailed(Exception e) {
+		connectionEnded = true;
+		signalStateChanged();
+		return new InitConnectionException(e.getMessage());
+	}
+	
+	/**
+	 * Closes WebSocket. Raises no exception, doesn't check if the connection was already closed.
+	 */
+	public void close() {
+		Session current = session;
+		if (current != null) {
+			try {
+				current.close();
+			} catch (Exception e) {
+
+			}
+			session = null;
+		}
+		
+		if (listenerThread != null) {
+			listenerThread.disconnect();
+			listenerThread = null;
+		}
+		
+		connected = false;
+		if (!connectionEnded) {
+			connectionEnded = true;
+			IOException closed = new IOException("connection closed");
+			requestLock.lock();
+			try {
+				MewaFuture<List<String>> devicesReply;
+				while ((devicesReply = devicesReplies.poll()) != null) {
+					devicesReply.fail(closed);
+				}
+				LastEventsReply lastEventsReply;
+				while ((lastEventsReply = lastEventsReplies.poll()) != null) {
+					if (lastEventsReply.future != null) {
+						lastEventsReply.future.fail(closed);
+					}
+				}
+				devicesFuture = null;
+				lastEventsFutures.clear();
+			} finally {
+				requestLock.unlock();
+			}
+			offerFrame(MewaFrame.of(MewaFrame.CLOSED));
+			signalStateChanged();
+		}
+	}
+	
+	/**
+	 * Sends "disconnect" request to the channel, then closes the connection.
+	 */
+	public void disconnect() {
+		send(encoder.disconnect());
+		close();
+	}
+	
+	/**
+	 * Sends request device list event to the channel.
+	 * Note that all events are asynchronous. The response will notify via <i>OnMessageListener.onDevicesEvent()</i> 
+	 */
+	public void requestDevicesList() {
+		send(encoder.getDevices());
+	}
+	
+	/**
+	 * Requests device list, returning future response. While a request is in flight, or its response is cached
+	 * (see <i>setResponseCacheTtl()</i>), the same future is returned and no new request is sent.
+	 * The response is also delivered to OnMessageListener as usual.
+	 * 
+	 * @return - future list of connected devices. Fails with IOException if not connected or the connection closes
+	 */
+	public MewaFuture<List<String>> requestDevicesListAsync() {
+		requestLock.lock();
+		try {
+			MewaFuture<List<String>> future = devicesFuture;
+			if (future != null && (!future.isDone() || future.isFresh(responseCacheTtl))) {
+				return future;
+			}
+			future = new MewaFuture<List<String>>();
+			if (!connected) {
+				future.fail(new IOException("not connected to channel"));
+				return future;
+			}
+			devicesFuture = future;
+			devicesReplies.add(future);
+			send(encoder.getDevices());
+			return future;
+		} finally {
+			requestLock.unlock();
+		}
+	}
+	
+	/**
+	 * Requests device list and waits for the response. Safe to call from many threads, including virtual threads.
+	 * See <i>requestDevicesListAsync()</i>.
+	 * 
+	 * @param timeout - maximum time to wait
+	 * @param unit - unit of timeout
+	 * @return - list of connected devices, or null if not connected, the connection closed or time elapsed
+	 * @throws InterruptedException - if interrupted while waiting
+	 */
+	public List<String> requestDevicesListAndWait(long timeout, TimeUnit unit) throws InterruptedException {
+		return requestDevicesListAsync().await(timeout, unit);
+	}
+	
+	/**
+	 * Requests last events, filtering by device, event prefix or both.
+	 * 
+	 * @param device - device name, or "" for all devices
+	 * @param eventPrefix - event prefix, or "" for all services
+	 */
+	public void requestLastEvents(String device, String eventPrefix) {
+		requestLastEvents(device, eventPrefix, null);
+	}
+	
+	/**
+	 * Requests last events at or after the timestamp, filtering by device, event prefix or both.
+	 * 
+	 * @param device - device name, or "" for all devices
+	 * @param eventPrefix - event prefix, or "" for all services
+	 * @param since - ISO 8601 timestamp as sent by the channel, or null for all events
+	 */
+	public void requestLastEvents(String device, String eventPrefix, String since) {
+		requestLock.lock();
+		try {
+			if (!connected) return;
+			lastEventsReplies.add(new LastEventsReply(null, device, eventPrefix, since, false, replyDeadline()));
+			send(encoder.getLastEvents(device, eventPrefix, since));
+		} finally {
+			requestLock.unlock();
+		}
+	}
+	
+	/**
+	 * Requests last events since resume point of each subscribed prefix.
+	 * 
+	 * @return - number of requests sent
+	 */
+	private int requestResume() {
+		String[] prefixes = subscribedEvents;
+		if (prefixes == null) return 0;
+		int sent = 0;
+		requestLock.lock();
+		try {
+			if (!connected) return 0;
+			long deadline = replyDeadline();
+			for (String prefix : prefixes) {
+				String since = resumePoints.get(prefix);
+				if (since == null) continue;
+				lastEventsReplies.add(new LastEventsReply(null, "", prefix, since, true, deadline));
+				send(encoder.getLastEvents("", prefix, since));
+				sent++;
+			}
+		} finally {
+			requestLock.unlock();
+		}
+		return sent;
+	}
+	
+	/**
+	 * Requests last events, returning future response. While an identical request is in flight, or its response is cached
+	 * (see <i>setResponseCacheTtl()</i>), the same future is returned and no new request is sent.
+	 * The response is also delivered to listeners as usual.
+	 * <p>
+	 * Replies carry no request id, so they are matched to requests in order, skipping requests whose filter the reply
+	 * doesn't fit, as their reply was lost. A request without reply fails after <i>setReplyTimeout()</i>.
+	 * 
+	 * @param device - device name, or "" for all devices
+	 * @param eventPrefix - event prefix, or "" for all services
+	 * @return - future list of events in array: timestamp, device, eventId, params. Fails with IOException if not connected,
+	 * the connection closes or no reply comes in time
+	 */
+	public MewaFuture<List<String[]>> requestLastEventsAsync(String device, String eventPrefix) {
+		String key = device + '\u0000' + eventPrefix;
+		requestLock.lock();
+		try {
+			long ttl = responseCacheTtl;
+			LastEventsReply reply = lastEventsFutures.get(key);
+			if (reply != null) {
+				if (reply.future.isFresh(ttl)) {
+					return reply.future;
+				}
+				if (!reply.future.isDone()) {
+					if (!reply.isExpired(System.nanoTime())) {
+						return reply.future;
+					}
+					expireReply(reply);
+				}
+			}
+			MewaFuture<List<String[]>> future = new MewaFuture<List<String[]>>();
+			if (!connected) {
+				future.fail(new IOException("not connected to channel"));
+				return future;
+			}
+			for (Iterator<LastEventsReply> it = lastEventsFutures.values().iterator(); it.hasNext();) {
+				MewaFuture<List<String[]>> other = it.next().future;
+				if (other.isDone() && !other.isFresh(ttl)) {
+					it.remove();
+				}
+			}
+			reply = new LastEventsReply(future, device, eventPrefix, null, false, replyDeadline());
+			lastEventsFutures.put(key, reply);
+			lastEventsReplies.add(reply);
+			send(encoder.getLastEvents(device, eventPrefix, null));
+			return future;
+		} finally {
+			requestLock.unlock();
+		}
+	}
+	
+	/**
+	 * Requests last events and waits for the response. Safe to call from many threads, including virtual threads.
+	 * See <i>requestLastEventsAsync()</i>.
+	 * 
+	 * @param device - device name, or "" for all devices
+	 * @param eventPrefix - event prefix, or "" for all services
+	 * @param timeout - maximum time to wait
+	 * @param unit - unit of timeout
+	 * @return - list of events in array: timestamp, device, eventId, params, or null if not connected, the connection closed or time elapsed
+	 * @throws InterruptedException - if interrupted while waiting
+	 */
+	public List<String[]> requestLastEventsAndWait(String device, String eventPrefix, long timeout, TimeUnit unit) throws InterruptedException {
+		return requestLastEventsAsync(device, eventPrefix).await(timeout, unit);
+	}
+	
+	/**
+	 * Sets how long responses of <i>requestDevicesListAsync()</i> and <i>requestLastEventsAsync()</i> are reused
+	 * for identical requests. Device list is refreshed anyway when a device joins or leaves the channel. Default is 0, no caching.
+	 * 
+	 * @param responseCacheTtl - time in milliseconds
+	 */
+	public void setResponseCacheTtl(long responseCacheTtl) {
+		this.responseCacheTtl = responseCacheTtl;
+	}
+	
+	/**
+	 * Sets how long <i>requestLastEventsAsync()</i> waits for reply before its future fails. A request whose reply is lost
+	 * is not collapsed with identical ones after that. Default is 30 seconds.
+	 * 
+	 * @param replyTimeout - time in milliseconds
+	 */
+	public void setReplyTimeout(long replyTimeout) {
+		this.replyTimeout = replyTimeout;
+	}
+	
+	private long replyDeadline() {
+		return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(replyTimeout);
+	}
+	
+	/**
+	 * Stops waiting for the reply, unless it was already taken from the queue.
+	 */
+	private void expireReply(LastEventsReply reply) {
+		if (lastEventsReplies.remove(reply)) {
+			reply.lost(lastEventsFutures);
+		}
+	}
+	
+	/**
+	 * Fails requests waiting for reply longer than the reply timeout. Replay after reconnect is left to the socket thread.
+	 */
+	private void expireReplies() {
+		long now = System.nanoTime();
+		for (LastEventsReply reply : lastEventsReplies) {
+			if (reply.future != null && reply.isExpired(now)) {
+				expireReply(reply);
+			}
+		}
+	}
+	
+	/**
+	 * Sends event to channel with parameters.
+	 * 
+	 * @param eventId - event type
+	 * @param params - event parameters
+	 */
+	public void sendEvent(String eventId, String params) {
+		send(encoder.sendEvent(eventId, params, false));
+	}
+	
+	/**
+	 * Sends event to channel with parameters.
+	 * 
+	 * @param eventId - event type
+	 * @param params - event parameters
+	 * @param ack - set if channel will acknowledge sent event
+	 */
+	public void sendEvent(String eventId, String params, boolean ack) {
+		send(encoder.sendEvent(eventId, params, ack));
+	}
+	
+	/**
+	 * Sends message to another device with parameters.
+	 * 
+	 * @param device - other device name
+	 * @param msgId - message type
+	 * @param params - message parameters
+	 */
+	public void sendMessage(String device,String msgId, String params) {
+		send(encoder.sendMessage(device, msgId, params));
+	}
+	
+	/**
+	 * Private method for sending any type of message. Waits until the message is written, at most SEND_TIMEOUT_MILLIS.
+	 * 
+	 * @param message - the message
+	 */
+	private void send(String message) {
+		Session current = session;
+		if (connected == false || current == null) return;
+
+		try {
+			current.getAsyncRemote().sendText(message).get(SEND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+
+		}
+	}
+	
+	/**
+	 * Occurs after opening WebSocket. Sends request to join channel.
+	 * 
+	 * @param session - opened session variable
+	 */
+	@OnOpen
+	public void onOpen(Session session) {
+		this.session = session; // the channel may accept the device before connectToServer() returns
+		try {
+			openedNanos = System.nanoTime();
+			String frame = connectFrame;
+			session.getBasicRemote().sendText(frame != null ? frame : encoder.connect(channel, device, password, subscribedEvents));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Occurs whenever any part of message comes from channel. Parts are passed to MewaDecoder, which may dispatch
+	 * entries of last events before the whole message comes.
+	 * 
+	 * @param partial - part of message from channel
+	 * @param last - whether this is the last part of message
+	 */
+	@OnMessage
+	public void onMessage(String partial, boolean last) {
+		PowerHook hook = acquirePowerHook();
+		try {
+			decoder.decodePart(partial, last, dispatcher);
+		} finally {
+			releasePowerHook(hook);
+		}
+	}
+	
+	/**
+	 * Occurs whenever any message comes from channel.
+	 * 
+	 * @param msg - message from channel
+	 */
+	public void onMessage(String msg) {
+		PowerHook hook = acquirePowerHook();
+		try {
+			decoder.decode(msg, dispatcher);
+		} finally {
+			releasePowerHook(hook);
+		}
+	}
+	
+	/**
+	 * Drops cached device list, so the next request is sent to the channel.
+	 */
+	private void invalidateDevicesList() {
+		requestLock.lock();
+		try {
+			if (devicesFuture != null && devicesFuture.isDone()) {
+				devicesFuture = null;
+			}
+		} finally {
+			requestLock.unlock();
+		}
+	}
+	
+	/**
+	 * Notifies about error message from the channel.
+	 * 
+	 * @param reason - error message
+	 */
+	private void onChannelError(String reason) {
+		listeners.fireError(reason, powerHook);
+		if (receiveQueue != null) {
+			offerFrame(MewaFrame.error(reason));
+		}
+		if (!connected) {
+			connectError = reason;
+			signalStateChanged();
+		}
+	}
+	
+	/**
+	 * Puts decoded frame into receive queue, if enabled.
+	 */
+	private void enqueueFrame(String type, String time, String device, String id, String params, List<String> devices, List<String[]> events) {
+		if (receiveQueue != null) {
+			offerFrame(new MewaFrame(type, time, device, id, params, devices, events, null));
+		}
+	}
+	
+	/**
+	 * Puts frame into receive queue, dropping the oldest frame if the queue is full.
+	 */
+	private void offerFrame(MewaFrame frame) {
+		BlockingQueue<MewaFrame> queue = receiveQueue;
+		if (queue == null) return;
+		while (!queue.offer(frame)) {
+			if (queue.poll() != null) {
+				droppedFrames.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * Wakes up threads waiting in <i>awaitConnected()</i>.
+	 */
+	private void signalStateChanged() {
+		stateLock.lock();
+		try {
+			stateChanged.signalAll();
+		} finally {
+			stateLock.unlock();
+		}
+	}
+	
+	/**
+	 * Acquires PowerHook, if set.
+	 * 
+	 * @return - the acquired hook, to be passed to <i>releasePowerHook()</i>
+	 */
+	private PowerHook acquirePowerHook() {
+		PowerHook hook = powerHook;
+		if (hook != null) {
+			hook.acquire();
+		}
+		return hook;
+	}
+	
+	/**
+	 * Releases PowerHook acquired by <i>acquirePowerHook()</i>, even if another one was set meanwhile.
+	 */
+	private static void releasePowerHook(PowerHook hook) {
+		if (hook != null) {
+			hook.release();
+		}
+	}
+	
+	/**
+	 * Returns pooled instance of the name, if StringPool is set.
+	 */
+	private String pooled(String name) {
+		StringPool pool = stringPool;
+		return pool != null ? pool.get(name) : name;
+	}
+	
+	/**
+	 * Checks event against EventDeduplicator, if set.
+	 * 
+	 * @return - true if the event was already received
+	 */
+	private boolean isDuplicateEvent(String time, String device, String eventId, String params) {
+		EventDeduplicator deduplicator = eventDeduplicator;
+		return deduplicator != null && deduplicator.isDuplicate(time, device, eventId, params);
+	}
+	
+	/**
+	 * Appends event to EventLog, if set.
+	 */
+	private void logEvent(String time, String device, String eventId, String params) {
+		EventLog log = eventLog;
+		if (log != null) {
+			log.append(time, device, eventId, params);
+		}
+	}
+	
+	/**
+	 * Occurs when some connection error happens within WebSocket. Closes WebSocket.
+	 * 
+	 * @param t - an throwable
+	 */
+	@OnError
+	public void onError(Throwable t) {
+		PowerHook hook = acquirePowerHook();
+		try {
+			t.printStackTrace();
+			endpoints.recordFailure(uri);
+			close();
+		} finally {
+			releasePowerHook(hook);
+		}
+    }
+	
+	/**
+	 * Occurs when pong for heartbeat ping comes. Updates round trip time of the server.
+	 * 
+	 * @param pong - pong with send time of the ping
+	 */
+	@OnMessage
+	public void onPong(PongMessage pong) {
+		ByteBuffer data = pong.getApplicationData();
+		if (data.remaining() < 8) return;
+		long sent = data.getLong(data.position());
+		if (sent == pingSentNanos) {
+			pingSentNanos = 0;
+		}
+		endpoints.recordRtt(uri, (System.nanoTime() - sent) / 1e6);
+	}
+	
+	/**
+	 * Occurs when WebSocket is closed.
+	 */
+	@OnClose
+	public void onClose() {
+		PowerHook hook = acquirePowerHook();
+		try {
+			close();
+			listeners.fireClosed(powerHook);
+		} finally {
+			releasePowerHook(hook);
+		}
+	}
+
+	
+	/**
+	 * ChannelDispatcher - delivers decoded frames to listeners, waiting requests and receive queue.
+	 * Names are pooled and events deduplicated and logged first.
+	 */
+	private class ChannelDispatcher implements MewaDispatcher {
+		private OnLastEventsStreamListener streamListener; // for last events being received
+		private List<String[]> lastEvents;
+		private int resumePending; // replays not received yet
+		private final ResumePoints pendingPoints = new ResumePoints(); // events processed while replay is pending
+		private final TimestampParser timestampParser = new TimestampParser(); // for matching replies to requests with since
+		
+		/**
+		 * Advances resume points. While replay is pending, they are advanced only after it's received.
+		 */
+		private void processed(String time, String eventId) {
+			if (resumePending == 0) {
+				resumePoints.update(subscribedEvents, time, eventId);
+			} else {
+				pendingPoints.update(subscribedEvents, time, eventId);
+			}
+		}
+		
+		@Override
+		public void onEvent(String time, String device, String eventId, String params) {
+			device = pooled(device);
+			eventId = pooled(eventId);
+			if (!isDuplicateEvent(time, device, eventId, params)) {
+				logEvent(time, device, eventId, params);
+				processed(time, eventId);
+				listeners.fireEvent(time, device, eventId, params, powerHook);
+				enqueueFrame(MewaFrame.EVENT, time, device, eventId, params, null, null);
+			}
+		}
+		
+		@Override
+		public void onMessage(String time, String device, String msgId, String params) {
+			device = pooled(device);
+			msgId = pooled(msgId);
+			listeners.fireMessage(time, device, msgId, params, powerHook);
+			enqueueFrame(MewaFrame.MESSAGE, time, device, msgId, params, null, null);
+		}
+		
+		@Override
+		public void onAck() {
+			listeners.fireAck(powerHook);
+			enqueueFrame(MewaFrame.ACK, null, null, null, null, null, null);
+		}
+		
+		@Override
+		public void onDeviceJoinedChannel(String time, String device) {
+			device = pooled(device);
+			invalidateDevicesList();
+			listeners.fireDeviceJoinedChannel(time, device, powerHook);
+			enqueueFrame(MewaFrame.JOINED_CHANNEL, time, device, null, null, null, null);
+		}
+		
+		@Override
+		public void onDeviceLeftChannel(String time, String device) {
+			device = pooled(device);
+			invalidateDevicesList();
+			listeners.fireDeviceLeftChannel(time, device, powerHook);
+			enqueueFrame(MewaFrame.LEFT_CHANNEL, time, device, null, null, null, null);
+		}
+		
+		/**
+		 * Starts last events. With OnLastEventsStreamListener, entries are collected only if a thread waits for them
+		 * in <i>requestLastEventsAndWait()</i>.
+		 */
+		@Override
+		public void onLastEventsStart() {
+			streamListener = onLastEventsStreamListener;
+			if (streamListener != null) {
+				lastEvents = isReplyAwaited() ? new ArrayList<String[]>() : null;
+				listeners.fireLastEventsStart(streamListener);
+			} else {
+				lastEvents = new ArrayList<String[]>();
+			}
+		}
+		
+		@Override
+		public void onLastEvent(String time, String device, String eventId, String params) {
+			device = pooled(device);
+			eventId = pooled(eventId);
+			if (!isDuplicateEvent(time, device, eventId, params)) {
+				logEvent(time, device, eventId, params);
+				processed(time, eventId);
+				if (streamListener != null) {
+					listeners.fireLastEvent(streamListener, time, device, eventId, params);
+				}
+				if (lastEvents != null) {
+					lastEvents.add(new String[] { time, device, eventId, params });
+				}
+			}
+		}
+		
+		@Override
+		public void onLastEventsEnd(String time) {
+			List<String[]> events = lastEvents;
+			lastEvents = null;
+			LastEventsReply reply = takeReply(events);
+			// nothing else refers to events anymore, so listeners, waiting request and frame can share them
+			List<String[]> response = events != null ? Collections.unmodifiableList(events) : Collections.<String[]>emptyList();
+			if (streamListener != null) {
+				listeners.fireLastEventsEnd(streamListener, time);
+				streamListener = null;
+			} else {
+				listeners.fireLastEvents(time, response, powerHook);
+			}
+			if (reply != null) {
+				replied(reply);
+				if (reply.future != null) {
+					reply.future.complete(response);
+				}
+			}
+			enqueueFrame(MewaFrame.LAST_EVENTS, time, null, null, null, null, response);
+		}
+		
+		private boolean isReplyAwaited() {
+			for (LastEventsReply reply : lastEventsReplies) {
+				if (reply.future != null) return true;
+			}
+			return false;
+		}
+		
+		/**
+		 * Takes the first awaited reply whose filter the events fit, failing those before it, as their replies were lost.
+		 * Without events to check, takes the first one. Events fitting no request are left unmatched.
+		 */
+		private LastEventsReply takeReply(List<String[]> events) {
+			if (events != null) {
+				LastEventsReply match = null;
+				for (LastEventsReply reply : lastEventsReplies) {
+					if (reply.matches(events, timestampParser)) {
+						match = reply;
+						break;
+					}
+				}
+				if (match == null) return null;
+				LastEventsReply reply;
+				while ((reply = lastEventsReplies.poll()) != null && reply != match) {
+					replied(reply);
+					reply.lost(lastEventsFutures);
+				}
+				return reply;
+			}
+			return lastEventsReplies.poll();
+		}
+		
+		/**
+		 * Merges resume points advanced during replay, after all replays were received or lost.
+		 */
+		private void replied(LastEventsReply reply) {
+			if (reply.resume && resumePending > 0 && --resumePending == 0) {
+				resumePoints.merge(pendingPoints);
+				pendingPoints.clear();
+			}
+		}
+		
+		@Override
+		public void onDevicesEvent(String time, List<String> devicesList) {
+			for (int i = 0; i < devicesList.size(); i++) {
+				devicesList.set(i, pooled(devicesList.get(i)));
+			}
+			List<String> response = Collections.unmodifiableList(new ArrayList<String>(devicesList)); // copied before listeners get the list
+			listeners.fireDevicesEvent(time, response, powerHook);
+			MewaFuture<List<String>> reply;
+			while ((reply = devicesReplies.poll()) != null) {
+				reply.complete(response);
+			}
+			enqueueFrame(MewaFrame.DEVICES_EVENT, time, null, null, null, response, null);
+		}
+		
+		@Override
+		public void onConnected() {
+			connectTimings = new ConnectTimings(connectStartNanos - connectCalledNanos, resolvedNanos - connectStartNanos, openedNanos - resolvedNanos, System.nanoTime() - openedNanos);
+			endpoints.recordSuccess(uri);
+			connected = true;
+			pendingPoints.clear();
+			resumePending = sessionResume ? requestResume() : 0;
+			listeners.fireConnected(powerHook);
+			enqueueFrame(MewaFrame.CONNECTED, null, null, null, null, null, null);
+			signalStateChanged();
+		}
+		
+		@Override
+		public void onDisconnected() {
+			listeners.fireClosed(powerHook);
+			close();
+		}
+		
+		@Override
+		public void onError(String reason) {
+			onChannelError(reason);
+			if (reason.equals("authorization-error")) {
+				close();
+			}
+		}
+	}
+	
+	/**
+	 * LastEventsReply - awaited reply to get-last-events request, with filter of the request and deadline
+	 */
+	private static class LastEventsReply {
+		final MewaFuture<List<String[]>> future; // null if nobody waits for the reply
+		final String device;
+		final String eventPrefix;
+		final String since;
+		final boolean resume; // replay after reconnect
+		final long deadline;
+		
+		LastEventsReply(MewaFuture<List<String[]>> future, String device, String eventPrefix, String since, boolean resume, long deadline) {
+			this.future = future;
+			this.device = device;
+			this.eventPrefix = eventPrefix;
+			this.since = since;
+			this.resume = resume;
+			this.deadline = deadline;
+		}
+		
+		boolean isExpired(long now) {
+			return now - deadline > 0;
+		}
+		
+		/**
+		 * Checks whether all events fit filter of the request, so they may be its reply.
+		 */
+		boolean matches(List<String[]> events, TimestampParser timestampParser) {
+			long sinceNanos = Long.MIN_VALUE;
+			if (since != null) {
+				try {
+					sinceNanos = timestampParser.parseNanos(since);
+				} catch (IllegalArgumentException e) {
+					// compared by device and prefix only
+				}
+			}
+			for (String[] event : events) {
+				if (!device.isEmpty() && !device.equals(event[1])) return false;
+				if (!event[2].startsWith(eventPrefix)) return false;
+				if (sinceNanos != Long.MIN_VALUE) {
+					try {
+						if (timestampParser.parseNanos(event[0]) < sinceNanos) return false;
+					} catch (IllegalArgumentException e) {
+						// not comparable
+					}
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Fails the request whose reply didn't come, so identical requests are not collapsed with it anymore.
+		 */
+		void lost(ConcurrentMap<String, LastEventsReply> futures) {
+			if (future == null) return;
+			future.fail(new IOException("no reply to request"));
+			futures.remove(device + '\u0000' + eventPrefix, this);
+		}
+	}
+	
+	/**
+	 * WSListenerThread - internal listening thread
+	 * 
+	 * @author Jacek Dermont
+	 */
+	private class WSListenerThread extends Thread {
+		private final CountDownLatch disconnected = new CountDownLatch(1);
+		
+		public void disconnect() {
+			disconnected.countDown();
+		}
+		
+		private void keepAlive() {
+			long interval = heartbeatInterval;
+			long wait = interval > 0 ? Math.min(interval, REPLY_CHECK_MILLIS) : REPLY_CHECK_MILLIS;
+			long pinged = System.nanoTime();
+			try {
+				while (!disconnected.await(wait, TimeUnit.MILLISECONDS)) {
+					expireReplies();
+					if (interval > 0 && System.nanoTime() - pinged >= TimeUnit.MILLISECONDS.toNanos(interval)) {
+						pinged = System.nanoTime();
+						ping();
+					}
+				}
+			} catch (InterruptedException e) {
+
+			}
+		}
+		
+		/**
+		 * Sends heartbeat ping with send time, counting previous unanswered ping as error.
+		 */
+		private void ping() {
+			Session current = session;
+			if (current == null || !current.isOpen()) return;
+			if (pingSentNanos != 0) {
+				endpoints.recordError(uri);
+			}
+			long now = System.nanoTime();
+			pingSentNanos = now;
+			ByteBuffer data = ByteBuffer.allocate(8);
+			data.putLong(0, now);
+			try {
+				current.getAsyncRemote().sendPing(data);
+			} catch (IOException e) {
+				endpoints.recordError(uri);
+			}
+		}
+		
+		@Override
+		public void run() {
+			keepAlive();
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package cc.mewa;
+
+/**
+ * MewaDecoder - decodes frames from the channel and passes them to MewaDispatcher by type.
+ * Used by one connection, from one thread at a time.
+ */
+public interface MewaDecoder {
+	/**
+	 * Decodes complete frame.
+	 *
+	 * @param frame - frame from the channel
+	 * @param dispatcher - receiver of decoded frame
+	 */
+	void decode(String frame, MewaDispatcher dispatcher);
+
+	/**
+	 * Decodes part of frame. Decoder may dispatch entries of last events before the last part comes,
+	 * otherwise it dispatches the frame with the last part.
+	 *
+	 * @param part - part of frame from the channel
+	 * @param last - whether this is the last part of frame
+	 * @param dispatcher - receiver of decoded frame
+	 */
+	void decodePart(String part, boolean last, MewaDispatcher dispatcher);
+
+	/**
+	 * Drops partially received frame, e.g. before new connection.
+	 */
+	void reset();
+}
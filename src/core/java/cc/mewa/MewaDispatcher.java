@@ -0,0 +1,97 @@
+package cc.mewa;
+
+import java.util.List;
+
+/**
+ * MewaDispatcher - receives decoded frames from MewaDecoder, one method per frame type. Implemented by MewaConnection,
+ * which deduplicates, logs and delivers them to listeners, waiting requests and receive queue.
+ */
+public interface MewaDispatcher {
+	/**
+	 * Event sent from a device.
+	 *
+	 * @param timestamp - ISO 8601 time when packet was processed in the channel
+	 * @param device - name of the device
+	 * @param eventId - event type
+	 * @param params - event parameters
+	 */
+	void onEvent(String timestamp, String device, String eventId, String params);
+
+	/**
+	 * Message sent from a device.
+	 *
+	 * @param timestamp - ISO 8601 time when packet was processed in the channel
+	 * @param device - name of the device
+	 * @param msgId - message type
+	 * @param params - message parameters
+	 */
+	void onMessage(String timestamp, String device, String msgId, String params);
+
+	/**
+	 * Acknowledgement of sent event.
+	 */
+	void onAck();
+
+	/**
+	 * A device joined the channel.
+	 *
+	 * @param timestamp - ISO 8601 time when packet was processed in the channel
+	 * @param device - name of the device
+	 */
+	void onDeviceJoinedChannel(String timestamp, String device);
+
+	/**
+	 * A device left the channel.
+	 *
+	 * @param timestamp - ISO 8601 time when packet was processed in the channel
+	 * @param device - name of the device
+	 */
+	void onDeviceLeftChannel(String timestamp, String device);
+
+	/**
+	 * Last events frame begins. Followed by <i>onLastEvent()</i> for each entry and <i>onLastEventsEnd()</i>.
+	 */
+	void onLastEventsStart();
+
+	/**
+	 * Single entry of last events.
+	 *
+	 * @param timestamp - ISO 8601 time when the event was processed in the channel
+	 * @param device - name of the device
+	 * @param eventId - event type
+	 * @param params - event parameters
+	 */
+	void onLastEvent(String timestamp, String device, String eventId, String params);
+
+	/**
+	 * Last events frame ends.
+	 *
+	 * @param timestamp - ISO 8601 time when packet was processed in the channel
+	 */
+	void onLastEventsEnd(String timestamp);
+
+	/**
+	 * List of connected devices.
+	 *
+	 * @param timestamp - ISO 8601 time when packet was processed in the channel
+	 * @param devices - device names, the list may be modified by the dispatcher
+	 */
+	void onDevicesEvent(String timestamp, List<String> devices);
+
+	/**
+	 * The channel accepted this device.
+	 */
+	void onConnected();
+
+	/**
+	 * The channel disconnected this device.
+	 */
+	void onDisconnected();
+
+	/**
+	 * Error message from the channel.
+	 *
+	 * @param reason - "already-connected-error", "authorization-error" or "not-connected-error"
+	 */
+	void onError(String reason);
+}
@@ -0,0 +1,61 @@
+package cc.mewa;
+
+/**
+ * MewaEncoder - encodes requests sent to the channel. Must be thread-safe.
+ */
+public interface MewaEncoder {
+	/**
+	 * Encodes request to join the channel.
+	 *
+	 * @param channel - channel name
+	 * @param device - device name
+	 * @param password - channel password
+	 * @param subscribedEvents - prefixes of events to receive, may be null
+	 * @return - the frame
+	 */
+	String connect(String channel, String device, String password, String[] subscribedEvents);
+
+	/**
+	 * Encodes request to leave the channel.
+	 *
+	 * @return - the frame
+	 */
+	String disconnect();
+
+	/**
+	 * Encodes request for list of connected devices.
+	 *
+	 * @return - the frame
+	 */
+	String getDevices();
+
+	/**
+	 * Encodes request for last events.
+	 *
+	 * @param device - device name, or "" for all devices
+	 * @param prefix - event prefix, or "" for all events
+	 * @param since - only events with timestamp at or after this one, or null for all
+	 * @return - the frame
+	 */
+	String getLastEvents(String device, String prefix, String since);
+
+	/**
+	 * Encodes event sent to the channel.
+	 *
+	 * @param eventId - event type
+	 * @param params - event parameters
+	 * @param ack - whether the channel should acknowledge the event
+	 * @return - the frame
+	 */
+	String sendEvent(String eventId, String params, boolean ack);
+
+	/**
+	 * Encodes message sent to a device.
+	 *
+	 * @param device - receiving device name
+	 * @param msgId - message type
+	 * @param params - message parameters
+	 * @return - the frame
+	 */
+	String sendMessage(String device, String msgId, String params);
+}
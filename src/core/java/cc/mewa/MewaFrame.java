@@ -0,0 +1,138 @@
+package cc.mewa;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * MewaFrame - single decoded message from the channel, as returned by <i>MewaConnection.receive()</i>.
+ * Fields not carried by the message type are null.
+ */
+public final class MewaFrame {
+	/** Event sent from a device: timestamp, device, id, params. */
+	public static final String EVENT = "event";
+	/** Message sent from a device: timestamp, device, id, params. */
+	public static final String MESSAGE = "message";
+	/** Acknowledgement of sent event. */
+	public static final String ACK = "ack";
+	/** A device joined the channel: timestamp, device. */
+	public static final String JOINED_CHANNEL = "joined-channel";
+	/** A device left the channel: timestamp, device. */
+	public static final String LEFT_CHANNEL = "left-channel";
+	/** Requested last events: timestamp, events. */
+	public static final String LAST_EVENTS = "last-events";
+	/** Requested list of connected devices: timestamp, devices. */
+	public static final String DEVICES_EVENT = "devices-event";
+	/** Connected to the channel. */
+	public static final String CONNECTED = "connected";
+	/** Error message from the channel: error. */
+	public static final String ERROR = "error";
+	/** Disconnected from the channel or WebSocket closed. Last frame of the connection. */
+	public static final String CLOSED = "closed";
+
+	private final String type;
+	private final String timestamp;
+	private final String device;
+	private final String id;
+	private final String params;
+	private final List<String> devices;
+	private final List<String[]> events;
+	private final String error;
+
+	MewaFrame(String type, String timestamp, String device, String id, String params, List<String> devices, List<String[]> events, String error) {
+		this.type = type;
+		this.timestamp = timestamp;
+		this.device = device;
+		this.id = id;
+		this.params = params;
+		this.devices = devices;
+		this.events = events;
+		this.error = error;
+	}
+
+	static MewaFrame of(String type) {
+		return new MewaFrame(type, null, null, null, null, null, null, null);
+	}
+
+	static MewaFrame error(String reason) {
+		return new MewaFrame(ERROR, null, null, null, null, null, null, reason);
+	}
+
+	/**
+	 * Returns frame type, one of the constants of this class.
+	 *
+	 * @return - frame type
+	 */
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * Returns ISO 8601 time when packet was processed in the channel.
+	 *
+	 * @return - timestamp
+	 */
+	public String getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns name of the device which sent event or message, joined or left the channel.
+	 *
+	 * @return - device name
+	 */
+	public String getDevice() {
+		return device;
+	}
+
+	/**
+	 * Returns event or message type.
+	 *
+	 * @return - event or message type
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Returns event or message parameters.
+	 *
+	 * @return - parameters
+	 */
+	public String getParams() {
+		return params;
+	}
+
+	/**
+	 * Returns list of connected devices.
+	 *
+	 * @return - device names
+	 */
+	public List<String> getDevices() {
+		return devices;
+	}
+
+	/**
+	 * Returns last events in arrays: timestamp, device, eventId, params.
+	 * Empty when last events were streamed to OnLastEventsStreamListener.
+	 *
+	 * @return - list of events
+	 */
+	public List<String[]> getEvents() {
+		return events != null ? events : (LAST_EVENTS.equals(type) ? Collections.<String[]>emptyList() : null);
+	}
+
+	/**
+	 * Returns error reason: "already-connected-error", "authorization-error" or "not-connected-error".
+	 *
+	 * @return - error reason
+	 */
+	public String getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		return "MewaFrame[" + type + (timestamp != null ? " " + timestamp : "") + (device != null ? " " + device : "")
+				+ (id != null ? " " + id : "") + (error != null ? " " + error : "") + "]";
+	}
+}
@@ -0,0 +1,99 @@
+package cc.mewa;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * MewaFuture - pending response to a request sent to the channel.
+ * The same instance may be shared by callers whose identical requests were collapsed into one, so the response must not be modified.
+ * Uses CountDownLatch instead of monitors, so waiting doesn't pin virtual threads. Cancelling is not supported.
+ */
+public class MewaFuture<T> implements Future<T> {
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final AtomicBoolean completed = new AtomicBoolean();
+	private volatile T value;
+	private volatile Throwable failure;
+	private volatile long completedAt;
+
+	/**
+	 * Completes the future and wakes up waiting threads. Only the first completion has effect.
+	 *
+	 * @param value - response
+	 */
+	void complete(T value) {
+		if (!completed.compareAndSet(false, true)) return;
+		this.value = value;
+		completedAt = System.nanoTime();
+		done.countDown();
+	}
+
+	/**
+	 * Fails the future and wakes up waiting threads. Only the first completion has effect.
+	 *
+	 * @param failure - reason, e.g. closed connection
+	 */
+	void fail(Throwable failure) {
+		if (!completed.compareAndSet(false, true)) return;
+		this.failure = failure;
+		completedAt = System.nanoTime();
+		done.countDown();
+	}
+
+	/**
+	 * Checks whether the future completed successfully less than given time ago.
+	 */
+	boolean isFresh(long ttlMillis) {
+		return isDone() && failure == null && System.nanoTime() - completedAt < TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+	}
+
+	/**
+	 * Waits for the response, returning null instead of throwing.
+	 *
+	 * @return - response, or null if the request failed or time elapsed
+	 */
+	T await(long timeout, TimeUnit unit) throws InterruptedException {
+		done.await(timeout, unit);
+		return failure == null ? value : null;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	@Override
+	public T get() throws InterruptedException, ExecutionException {
+		done.await();
+		return result();
+	}
+
+	@Override
+	public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return result();
+	}
+
+	private T result() throws ExecutionException {
+		Throwable reason = failure;
+		if (reason != null) {
+			throw new ExecutionException(reason);
+		}
+		return value;
+	}
+}
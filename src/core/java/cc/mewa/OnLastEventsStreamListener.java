@@ -0,0 +1,30 @@
+package cc.mewa;
+
+/**
+ * OnLastEventsStreamListener - listener receiving last events one by one, while the response is still being received.
+ * When set, it replaces <i>OnMessageListener.onLastEvents()</i>.
+ */
+public interface OnLastEventsStreamListener {
+
+	/**
+	 * Invoked when the list of last events starts arriving.
+	 */
+	public void onLastEventsStart();
+
+	/**
+	 * Invoked for each event of the list, in order.
+	 *
+	 * @param timestamp - ISO 8601 time when the event was processed in the channel
+	 * @param fromDevice - name of the device
+	 * @param eventId - event type
+	 * @param params - event parameters
+	 */
+	public void onLastEvent(String timestamp, String fromDevice, String eventId, String params);
+
+	/**
+	 * Invoked after the last event of the list.
+	 *
+	 * @param timestamp - ISO 8601 time when packet was processed in the channel
+	 */
+	public void onLastEventsEnd(String timestamp);
+}
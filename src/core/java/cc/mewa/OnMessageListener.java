@@ -67,7 +67,7 @@ public interface OnMessageListener {
 	 * Invoked when a channel, after requested, sends list of connected devices to this device.
 	 * 
 	 * @param timestamp - ISO 8601 time when packet was processed in the channel
-	 * @param deviceList - list of connected devices in channel
+	 * @param deviceList - unmodifiable list of connected devices in channel, shared with other listeners
 	 */
 	public void onDevicesEvent(String timestamp, List<String> deviceList);
 	
@@ -77,7 +77,7 @@ public interface OnMessageListener {
 	 * List is in form of Arrays of Strings: timestamp, device, eventId, params
 	 * 
 	 * @param timestamp - ISO 8601 time when packet was processed in the channel
-	 * @param eventList - list of events in array: timestamp, device, eventId, params
+	 * @param eventList - unmodifiable list of events in array: timestamp, device, eventId, params, shared with other listeners
 	 */
 	public void onLastEvents(String timestamp, List<String[]> eventList);
 	
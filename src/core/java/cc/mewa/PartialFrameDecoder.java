@@ -0,0 +1,117 @@
+package cc.mewa;
+
+/**
+ * PartialFrameDecoder - scans a frame delivered in parts and hands out elements of its top-level <i>events</i> array
+ * as soon as each one is complete. The rest of the frame is kept, with the array emptied, and returned at the end.
+ * Memory use is bounded by the largest single element instead of the whole frame.
+ */
+abstract class PartialFrameDecoder {
+	private static final String STREAMED_KEY = "events";
+
+	private final StringBuilder head = new StringBuilder();
+	private final StringBuilder element = new StringBuilder();
+	private final StringBuilder lastString = new StringBuilder();
+
+	private int depth;
+	private boolean inString;
+	private boolean escaped;
+	private boolean streaming;
+
+	/**
+	 * Invoked when the streamed array begins.
+	 */
+	protected abstract void onArrayStart();
+
+	/**
+	 * Invoked for each complete element of the streamed array.
+	 *
+	 * @param json - the element text
+	 */
+	protected abstract void onElement(String json);
+
+	/**
+	 * Feeds next part of the frame.
+	 *
+	 * @param partial - part of the frame
+	 */
+	public void feed(String partial) {
+		for (int i = 0; i < partial.length(); i++) {
+			char c = partial.charAt(i);
+			boolean inElement = streaming && depth > 2;
+
+			if (inString) {
+				if (escaped) {
+					escaped = false;
+				} else if (c == '\\') {
+					escaped = true;
+				} else if (c == '"') {
+					inString = false;
+				} else if (depth == 1) {
+					lastString.append(c);
+				}
+			} else if (c == '"') {
+				inString = true;
+				if (depth == 1) lastString.setLength(0);
+			} else if (c == '{' || c == '[') {
+				depth++;
+				if (depth == 2 && c == '[' && STREAMED_KEY.contentEquals(lastString)) {
+					streaming = true;
+					head.append(c);
+					onArrayStart();
+					continue;
+				}
+				inElement = streaming && depth > 2;
+			} else if (c == '}' || c == ']') {
+				depth--;
+				if (streaming && depth == 2) {
+					element.append(c);
+					onElement(element.toString());
+					element.setLength(0);
+					continue;
+				}
+				if (streaming && depth == 1) {
+					streaming = false;
+				}
+			}
+
+			if (inElement) {
+				element.append(c);
+			} else if (!streaming || depth < 2) {
+				head.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Returns the frame without elements of the streamed array, and resets the decoder for next frame.
+	 *
+	 * @return - the rest of the frame
+	 */
+	public String finish() {
+		String rest = head.toString();
+		reset();
+		return rest;
+	}
+
+	/**
+	 * Drops any partially received frame.
+	 */
+	public void reset() {
+		head.setLength(0);
+		element.setLength(0);
+		lastString.setLength(0);
+		depth = 0;
+		inString = false;
+		escaped = false;
+		streaming = false;
+	}
+
+	/**
+	 * Checks whether the decoder is in the middle of a frame.
+	 *
+	 * @return - true if some part of a frame was fed
+	 */
+	public boolean isStarted() {
+		return head.length() > 0;
+	}
+}
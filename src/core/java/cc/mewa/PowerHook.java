@@ -0,0 +1,18 @@
+package cc.mewa;
+
+/**
+ * PowerHook - platform hook keeping the device awake while MewaConnection processes incoming data, e.g. Android's wake lock.
+ */
+public interface PowerHook {
+	
+	/**
+	 * Invoked before processing a message or a connection state change.
+	 */
+	public void acquire();
+	
+	/**
+	 * Invoked after processing, once for each <i>acquire()</i>. Callbacks run by listener executors hold their own acquire
+	 * until they return, so releases may come from other threads and after the connection closed.
+	 */
+	public void release();
+}
@@ -0,0 +1,108 @@
+package cc.mewa;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ResumePoints - timestamp of the newest processed event for each subscribed prefix, from which
+ * events are requested again after reconnect.
+ * <p>
+ * Updated by the socket thread only, read and set by any thread. Timestamps are kept as sent by the channel,
+ * compared by their epoch value.
+ */
+final class ResumePoints {
+	private final Map<String, Point> points = new ConcurrentHashMap<String, Point>();
+	private final TimestampParser timestampParser = new TimestampParser();
+
+	/**
+	 * Advances resume point of every prefix matching the event, if the event is newer.
+	 *
+	 * @param prefixes - subscribed prefixes, or null
+	 * @param time - timestamp of the event
+	 * @param eventId - event type
+	 */
+	void update(String[] prefixes, String time, String eventId) {
+		if (prefixes == null) return;
+		long nanos = 0;
+		boolean parsed = false;
+		for (String prefix : prefixes) {
+			if (!eventId.startsWith(prefix)) continue;
+			if (!parsed) {
+				try {
+					nanos = timestampParser.parseNanos(time);
+				} catch (IllegalArgumentException e) {
+					return;
+				}
+				parsed = true;
+			}
+			Point current = points.get(prefix);
+			if (current == null || nanos > current.nanos) {
+				points.put(prefix, new Point(time, nanos));
+			}
+		}
+	}
+
+	/**
+	 * Returns timestamp of the newest event processed for the prefix, or null if none.
+	 */
+	String get(String prefix) {
+		Point point = points.get(prefix);
+		return point != null ? point.time : null;
+	}
+
+	/**
+	 * Sets resume point of the prefix, e.g. restored from storage. Null removes it.
+	 *
+	 * @throws IllegalArgumentException - if timestamp is not valid ISO 8601
+	 */
+	void set(String prefix, String time) {
+		if (time == null) {
+			points.remove(prefix);
+		} else {
+			points.put(prefix, new Point(time, timestampParser.parseNanos(time)));
+		}
+	}
+
+	/**
+	 * Takes points of the other instance that are newer.
+	 */
+	void merge(ResumePoints other) {
+		for (Map.Entry<String, Point> entry : other.points.entrySet()) {
+			Point current = points.get(entry.getKey());
+			if (current == null || entry.getValue().nanos > current.nanos) {
+				points.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Removes points of prefixes that are not listed.
+	 *
+	 * @param prefixes - prefixes to keep, or null to remove all
+	 */
+	void retain(String[] prefixes) {
+		if (prefixes == null) {
+			points.clear();
+			return;
+		}
+		points.keySet().retainAll(Arrays.asList(prefixes));
+	}
+
+	void clear() {
+		points.clear();
+	}
+
+	/**
+	 * Point - timestamp and its epoch value
+	 */
+	private static class Point {
+		final String time;
+		final long nanos;
+
+		Point(String time, long nanos) {
+			this.time = time;
+			this.nanos = nanos;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package cc.mewa;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.websocket.ClientEndpoint;
+import javax.websocket.Session;
+
+import org.glassfish.tyrus.client.ClientManager;
+import org.glassfish.tyrus.client.ClientProperties;
+import org.glassfish.tyrus.client.SslEngineConfigurator;
+
+import com.google.gson.JsonParser;
+
+/**
+ * SharedClient - ClientManager shared by all MewaConnections, with things that are slow on first connect done in advance.
+ * <p>
+ * Each connection gets its own transport. Tyrus 1.8 shuts the shared container's transport down when any connect fails,
+ * which closes all other connections and fails later connects, so SHARED_CONTAINER is not used. All wss connections use one SSLContext,
+ * which lets TLS resume sessions instead of doing full handshakes (by default Tyrus creates new SSLContext for every connect).
+ * The JDK caches client sessions by host and port, but Tyrus creates engines with port -1, so each server port gets
+ * a ClientManager whose SSLContext fills the port in.
+ * Plain ws connections use a separate ClientManager, because Tyrus adds TLS to any connection when SSL configurator is set.
+ */
+final class SharedClient {
+	private static final ReentrantLock lock = new ReentrantLock();
+	private static ClientManager client; // guarded by lock
+	private static final Map<Integer, ClientManager> secureClients = new HashMap<Integer, ClientManager>(); // by port, guarded by lock
+
+	private SharedClient() {
+
+	}
+
+	/**
+	 * Returns shared ClientManager for the URI scheme, creating it on first call.
+	 *
+	 * @param uri - WebSocket URI
+	 * @return - shared ClientManager
+	 */
+	static ClientManager get(URI uri) {
+		boolean secure = "wss".equalsIgnoreCase(uri.getScheme());
+		lock.lock();
+		try {
+			if (secure) {
+				int port = uri.getPort() != -1 ? uri.getPort() : 443;
+				ClientManager secureClient = secureClients.get(port);
+				if (secureClient == null) {
+					secureClient = ClientManager.createClient();
+					try {
+						SSLContext sslContext = portContext(SSLContext.getDefault(), port);
+						secureClient.getProperties().put(ClientProperties.SSL_ENGINE_CONFIGURATOR, new SslEngineConfigurator(sslContext, true, false, false));
+					} catch (NoSuchAlgorithmException e) {
+						// Tyrus falls back to its own SSLContext per connection
+					}
+					secureClients.put(port, secureClient);
+				}
+				return secureClient;
+			}
+			if (client == null) {
+				client = ClientManager.createClient();
+			}
+			return client;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns SSLContext sharing sessions of the given one, creating engines for the port when created without it.
+	 */
+	private static SSLContext portContext(SSLContext sslContext, int port) {
+		return new SSLContext(new PortSslContextSpi(sslContext, port), sslContext.getProvider(), sslContext.getProtocol()) {
+
+		};
+	}
+
+	/**
+	 * Resolves host name of the URI. The platform caches the result, so the following lookup made by the WebSocket container
+	 * returns immediately.
+	 *
+	 * @param uri - WebSocket URI
+	 */
+	static void resolve(URI uri) {
+		String host = uri.getHost();
+		if (host == null) return;
+		try {
+			InetAddress.getAllByName(host);
+		} catch (UnknownHostException e) {
+			// reported by connect
+		}
+	}
+
+	/**
+	 * Starts warming up on background threads: one resolves host, the other initializes TLS and JSON classes and opens
+	 * and closes a WebSocket to the server without joining the channel. The handshake loads the container's classes
+	 * and, for wss, leaves TLS session to be resumed by the real connect. The resolved host is cached only briefly
+	 * (30 s by default), so this helps most right before connecting.
+	 *
+	 * @param uri - WebSocket URI that will be connected to
+	 */
+	static void prewarm(final URI uri) {
+		Thread dns = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				resolve(uri);
+			}
+		}, "mewa-prewarm-dns");
+		dns.setDaemon(true);
+		dns.start();
+
+		Thread container = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				new GsonCodec().getEncoder().connect("", "", "", new String[0]);
+				new JsonParser().parse("{\"type\":\"connected\"}");
+				try {
+					Session session = get(uri).connectToServer(new WarmupEndpoint(), uri);
+					session.close();
+				} catch (Exception e) {
+					// the real connect will report it
+				}
+			}
+		}, "mewa-prewarm-client");
+		container.setDaemon(true);
+		container.start();
+	}
+
+	/**
+	 * PortSslContextSpi - delegates to initialized SSLContext, filling in server port of new engines
+	 */
+	private static class PortSslContextSpi extends SSLContextSpi {
+		private final SSLContext delegate;
+		private final int port;
+
+		PortSslContextSpi(SSLContext delegate, int port) {
+			this.delegate = delegate;
+			this.port = port;
+		}
+
+		@Override
+		protected void engineInit(KeyManager[] km, TrustManager[] tm, SecureRandom sr) throws KeyManagementException {
+			throw new KeyManagementException("already initialized");
+		}
+
+		@Override
+		protected SSLSocketFactory engineGetSocketFactory() {
+			return delegate.getSocketFactory();
+		}
+
+		@Override
+		protected SSLServerSocketFactory engineGetServerSocketFactory() {
+			return delegate.getServerSocketFactory();
+		}
+
+		@Override
+		protected SSLEngine engineCreateSSLEngine() {
+			return delegate.createSSLEngine();
+		}
+
+		@Override
+		protected SSLEngine engineCreateSSLEngine(String host, int port) {
+			return delegate.createSSLEngine(host, port != -1 ? port : this.port);
+		}
+
+		@Override
+		protected SSLSessionContext engineGetServerSessionContext() {
+			return delegate.getServerSessionContext();
+		}
+
+		@Override
+		protected SSLSessionContext engineGetClientSessionContext() {
+			return delegate.getClientSessionContext();
+		}
+	}
+
+	/**
+	 * WarmupEndpoint - endpoint of the warm-up WebSocket, ignores everything
+	 */
+	@ClientEndpoint
+	public static class WarmupEndpoint {
+
+	}
+}
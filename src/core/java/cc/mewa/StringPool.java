@@ -0,0 +1,84 @@
+package cc.mewa;
+
+/**
+ * StringPool - bounded canonicalizing pool for short, frequently repeated Strings like device names and event types.
+ * Equal values return the same instance, so they can be compared by identity and duplicates don't stay on the heap.
+ * <p>
+ * The pool is a direct-mapped table: a new value replaces the one occupying its slot, so the size never exceeds capacity.
+ * Lookups are lock-free and thread-safe, a lost race only means one more distinct instance.
+ */
+public class StringPool {
+	private final String[] table;
+	private final int mask;
+	private final int maxLength;
+
+	private volatile long hits; // updated without atomicity, concurrent lookups may lose counts
+	private volatile long misses;
+
+	/**
+	 * Constructor for StringPool. Values longer than 64 characters are not pooled.
+	 *
+	 * @param capacity - number of slots, rounded up to a power of two
+	 */
+	public StringPool(int capacity) {
+		this(capacity, 64);
+	}
+
+	/**
+	 * Constructor for StringPool.
+	 *
+	 * @param capacity - number of slots, rounded up to a power of two
+	 * @param maxLength - longer values are returned as they are, without pooling
+	 */
+	public StringPool(int capacity, int maxLength) {
+		if (capacity < 1 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) size <<= 1;
+		table = new String[size];
+		mask = size - 1;
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Returns pooled instance equal to the value, adding the value if it wasn't pooled.
+	 *
+	 * @param value - the value, may be null
+	 * @return - pooled instance, or the value itself if it isn't poolable
+	 */
+	public String get(String value) {
+		if (value == null || value.length() > maxLength) return value;
+		int slot = spread(value.hashCode()) & mask;
+		String pooled = table[slot];
+		if (pooled != null && (pooled == value || pooled.equals(value))) {
+			hits++;
+			return pooled;
+		}
+		misses++;
+		table[slot] = value;
+		return value;
+	}
+
+	/**
+	 * Returns how many lookups returned an already pooled instance. Approximate under concurrent use.
+	 *
+	 * @return - number of hits
+	 */
+	public long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Returns how many lookups added a new instance. Approximate under concurrent use.
+	 *
+	 * @return - number of misses
+	 */
+	public long getMissCount() {
+		return misses;
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+}
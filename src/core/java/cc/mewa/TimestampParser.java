@@ -0,0 +1,184 @@
+package cc.mewa;
+
+/**
+ * TimestampParser - fast parser for ISO 8601 timestamps sent by the channel, e.g. "2014-11-04T10:15:30.123Z".
+ * Accepted form: <i>yyyy-MM-ddTHH:mm:ss</i>, optional fraction of second (up to 9 digits) and zone designator
+ * (<i>Z</i>, <i>+HH:mm</i>, <i>+HHmm</i> or <i>+HH</i>). Missing zone designator means UTC.
+ * <p>
+ * Consecutive frames usually share date and hour, so epoch value of the last seen <i>yyyy-MM-ddTHH</i> prefix is cached.
+ * Parsing does not allocate unless the prefix changes. Instances are thread-safe.
+ */
+public class TimestampParser {
+	private static final int PREFIX_LENGTH = 13; // yyyy-MM-ddTHH
+	private static final long MILLIS_PER_HOUR = 3600000L;
+
+	private volatile Prefix cachedPrefix = new Prefix("", 0);
+
+	/**
+	 * Parses timestamp to milliseconds since epoch.
+	 *
+	 * @param timestamp - ISO 8601 timestamp
+	 * @return - milliseconds since 1970-01-01T00:00:00Z
+	 * @throws IllegalArgumentException - if timestamp is not in the accepted form
+	 */
+	public long parseMillis(String timestamp) {
+		long nanos = parseNanosOfHour(timestamp);
+		return prefixMillis(timestamp) + nanos / 1000000L - zoneOffsetMillis(timestamp);
+	}
+
+	/**
+	 * Parses timestamp to nanoseconds since epoch. Valid until year 2262.
+	 *
+	 * @param timestamp - ISO 8601 timestamp
+	 * @return - nanoseconds since 1970-01-01T00:00:00Z
+	 * @throws IllegalArgumentException - if timestamp is not in the accepted form
+	 */
+	public long parseNanos(String timestamp) {
+		long nanos = parseNanosOfHour(timestamp);
+		return (prefixMillis(timestamp) - zoneOffsetMillis(timestamp)) * 1000000L + nanos;
+	}
+
+	/**
+	 * Returns epoch milliseconds of the date and hour (without zone offset), from cache if possible.
+	 */
+	private long prefixMillis(String s) {
+		Prefix prefix = cachedPrefix;
+		if (s.regionMatches(0, prefix.text, 0, PREFIX_LENGTH)) {
+			return prefix.millis;
+		}
+		if (s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T') {
+			throw invalid(s);
+		}
+		int year = digits(s, 0, 4);
+		int month = digits(s, 5, 2);
+		int day = digits(s, 8, 2);
+		int hour = digits(s, 11, 2);
+		if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour > 23) {
+			throw invalid(s);
+		}
+		long millis = daysFromCivil(year, month, day) * 24 * MILLIS_PER_HOUR + hour * MILLIS_PER_HOUR;
+		cachedPrefix = new Prefix(s.substring(0, PREFIX_LENGTH), millis);
+		return millis;
+	}
+
+	/**
+	 * Returns nanoseconds elapsed since the full hour: minutes, seconds and fraction.
+	 */
+	private static long parseNanosOfHour(String s) {
+		if (s == null || s.length() < 19 || s.charAt(13) != ':' || s.charAt(16) != ':') {
+			throw invalid(s);
+		}
+		int minute = digits(s, 14, 2);
+		int second = digits(s, 17, 2);
+		if (minute > 59 || second > 60) {
+			throw invalid(s);
+		}
+		long nanos = (minute * 60L + second) * 1000000000L;
+		int i = 19;
+		if (i < s.length() && (s.charAt(i) == '.' || s.charAt(i) == ',')) {
+			i++;
+			long scale = 100000000L;
+			int start = i;
+			while (i < s.length() && isDigit(s.charAt(i))) {
+				nanos += (s.charAt(i) - '0') * scale;
+				scale /= 10;
+				i++;
+			}
+			if (i == start || i - start > 9) {
+				throw invalid(s);
+			}
+		}
+		return nanos;
+	}
+
+	/**
+	 * Returns zone offset in milliseconds. It starts right after the seconds and their fraction, as validated by
+	 * <i>parseNanosOfHour()</i>.
+	 */
+	private static long zoneOffsetMillis(String s) {
+		int i = 19;
+		if (i < s.length() && (s.charAt(i) == '.' || s.charAt(i) == ',')) {
+			i++;
+			while (i < s.length() && isDigit(s.charAt(i))) {
+				i++;
+			}
+		}
+		if (i == s.length()) return 0;
+		char c = s.charAt(i);
+		if (c == 'Z' || c == 'z') {
+			if (i + 1 != s.length()) throw invalid(s);
+			return 0;
+		}
+		if (c != '+' && c != '-') {
+			throw invalid(s);
+		}
+		int remaining = s.length() - i - 1;
+		int hours;
+		int minutes = 0;
+		if (remaining == 2) {
+			hours = digits(s, i + 1, 2);
+		} else if (remaining == 4) {
+			hours = digits(s, i + 1, 2);
+			minutes = digits(s, i + 3, 2);
+		} else if (remaining == 5 && s.charAt(i + 3) == ':') {
+			hours = digits(s, i + 1, 2);
+			minutes = digits(s, i + 4, 2);
+		} else {
+			throw invalid(s);
+		}
+		long offset = (hours * 60L + minutes) * 60000L;
+		return c == '-' ? -offset : offset;
+	}
+
+	private static int digits(String s, int start, int count) {
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			char c = s.charAt(i);
+			if (!isDigit(c)) {
+				throw invalid(s);
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static int daysInMonth(int year, int month) {
+		if (month == 2) {
+			return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+		}
+		return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+	}
+
+	/**
+	 * Days since 1970-01-01 in proleptic Gregorian calendar.
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		year -= month <= 2 ? 1 : 0;
+		long era = (year >= 0 ? year : year - 399) / 400;
+		long yearOfEra = year - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	private static IllegalArgumentException invalid(String s) {
+		return new IllegalArgumentException("Invalid timestamp: " + s);
+	}
+
+	/**
+	 * Prefix - cached date and hour with its epoch value
+	 */
+	private static final class Prefix {
+		final String text;
+		final long millis;
+
+		Prefix(String text, long millis) {
+			this.text = text;
+			this.millis = millis;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package cc.mewa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class EventDeduplicatorTest {
+	private static final String TIME = "2014-11-04T10:15:30.123Z";
+
+	@Test
+	public void suppressesRepeatedEvent() {
+		EventDeduplicator deduplicator = new EventDeduplicator(64 * 1024, 0.001, 60000);
+		assertFalse(deduplicator.isDuplicate(TIME, "a", "org.light", "1"));
+		assertTrue(deduplicator.isDuplicate(TIME, "a", "org.light", "1"));
+		assertEquals(1, deduplicator.getSuppressedCount());
+	}
+
+	@Test
+	public void distinguishesEveryField() {
+		EventDeduplicator deduplicator = new EventDeduplicator(64 * 1024, 0.001, 60000);
+		assertFalse(deduplicator.isDuplicate(TIME, "a", "org.light", "1"));
+		assertFalse(deduplicator.isDuplicate("2014-11-04T10:15:30.124Z", "a", "org.light", "1"));
+		assertFalse(deduplicator.isDuplicate(TIME, "b", "org.light", "1"));
+		assertFalse(deduplicator.isDuplicate(TIME, "a", "org.switch", "1"));
+		assertFalse(deduplicator.isDuplicate(TIME, "a", "org.light", "2"));
+		// field boundaries are part of the fingerprint
+		assertFalse(deduplicator.isDuplicate(TIME, "ab", "c", "1"));
+		assertFalse(deduplicator.isDuplicate(TIME, "a", "bc", "1"));
+	}
+
+	@Test
+	public void clearForgetsEvents() {
+		EventDeduplicator deduplicator = new EventDeduplicator(64 * 1024, 0.001, 60000);
+		deduplicator.isDuplicate(TIME, "a", "org.light", "1");
+		deduplicator.clear();
+		assertFalse(deduplicator.isDuplicate(TIME, "a", "org.light", "1"));
+	}
+
+	@Test
+	public void forgetsEventsAfterWindow() throws InterruptedException {
+		EventDeduplicator deduplicator = new EventDeduplicator(64 * 1024, 0.001, 1000);
+		deduplicator.isDuplicate(TIME, "a", "org.light", "1");
+		Thread.sleep(550);
+		assertTrue(deduplicator.isDuplicate(TIME, "a", "org.light", "1")); // rotated once, still in older generation
+		Thread.sleep(550);
+		deduplicator.isDuplicate(TIME, "b", "org.light", "1");
+		Thread.sleep(550);
+		deduplicator.isDuplicate(TIME, "c", "org.light", "1");
+		assertFalse(deduplicator.isDuplicate(TIME, "a", "org.light", "1"));
+	}
+
+	@Test
+	public void rotatesWhenFull() {
+		EventDeduplicator deduplicator = new EventDeduplicator(1024, 0.01, 60000);
+		deduplicator.isDuplicate(TIME, "first", "org.light", "1");
+		for (int i = 0; i < deduplicator.getCapacity() * 3; i++) {
+			deduplicator.isDuplicate(TIME, "d" + i, "org.light", "1");
+		}
+		assertFalse(deduplicator.isDuplicate(TIME, "first", "org.light", "1"));
+	}
+
+	@Test
+	public void keepsFalsePositiveRateNearConfigured() {
+		EventDeduplicator deduplicator = new EventDeduplicator(16 * 1024, 0.01, 60000);
+		int capacity = deduplicator.getCapacity();
+		for (int i = 0; i < capacity; i++) {
+			deduplicator.isDuplicate(TIME, "seen" + i, "org.light", "1");
+		}
+		int falsePositives = 0;
+		int probes = 10000;
+		for (int i = 0; i < probes; i++) {
+			if (deduplicator.isDuplicate(TIME, "new" + i, "org.light", "1")) falsePositives++;
+		}
+		assertTrue("false positives: " + falsePositives, falsePositives <= probes * 0.01);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsInvalidRate() {
+		new EventDeduplicator(1024, 1.0, 60000);
+	}
+}
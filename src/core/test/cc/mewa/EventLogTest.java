@@ -0,0 +1,196 @@
+package cc.mewa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EventLogTest {
+	private static final long BASE = 1415096130000L; // 2014-11-04T10:15:30Z
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private EventLog log;
+
+	@After
+	public void tearDown() {
+		if (log != null) log.close();
+	}
+
+	@Test
+	public void queriesByTimeDeviceAndPrefix() throws Exception {
+		log = new EventLog(folder.getRoot(), 0, 0);
+		log.append(iso(BASE), "a", "org.light", "1");
+		log.append(iso(BASE + 1000), "b", "org.light", "2");
+		log.append(iso(BASE + 2000), "a", "org.switch", "3");
+		log.append(iso(BASE + 3000), "a", "com.other", "4");
+		log.flush();
+
+		assertEquals(Arrays.asList("1", "2", "3", "4"), params(log.query("", "")));
+		assertEquals(Arrays.asList("1", "3", "4"), params(log.query("a", "")));
+		assertEquals(Arrays.asList("1", "3"), params(log.query("a", "org.")));
+		assertEquals(Arrays.asList("2", "3"), params(log.query(BASE + 1000, BASE + 3000, "", "")));
+		assertEquals(Arrays.asList(iso(BASE), "a", "org.light", "1"), Arrays.asList(log.query("a", "org.light").get(0)));
+	}
+
+	@Test
+	public void lastEventsKeepsNewestOfEachDeviceAndType() throws Exception {
+		log = new EventLog(folder.getRoot(), 0, 0);
+		log.append(iso(BASE + 2000), "a", "org.light", "new");
+		log.append(iso(BASE), "a", "org.light", "old");
+		log.append(iso(BASE + 1000), "b", "org.light", "b");
+		log.append(iso(BASE + 1000), "a", "org.switch", "switch");
+		log.flush();
+
+		assertEquals(Arrays.asList("new", "b", "switch"), params(log.lastEvents("", "org.")));
+		assertEquals(Arrays.asList("new", "switch"), params(log.lastEvents("a", "")));
+	}
+
+	@Test
+	public void reopensSealedAndActiveSegments() throws Exception {
+		log = new EventLog(folder.getRoot(), 0, 0, 256, 1000);
+		for (int i = 0; i < 50; i++) {
+			log.append(iso(BASE + i), i % 2 == 0 ? "even" : "odd", "org.light", Integer.toString(i));
+		}
+		log.close();
+		assertTrue(segmentFiles().length > 5);
+
+		log = new EventLog(folder.getRoot(), 0, 0, 256, 1000);
+		assertEquals(50, log.query("", "").size());
+		assertEquals(25, log.query("odd", "").size());
+		log.append(iso(BASE + 50), "even", "org.light", "50");
+		log.flush();
+		List<String[]> events = log.query("even", "");
+		assertEquals(26, events.size());
+		assertEquals("50", events.get(25)[3]);
+	}
+
+	@Test
+	public void truncatesTornRecordAtEndOfNewestSegment() throws Exception {
+		log = new EventLog(folder.getRoot(), 0, 0);
+		log.append(iso(BASE), "a", "org.light", "1");
+		log.append(iso(BASE + 1000), "a", "org.light", "2");
+		log.close();
+
+		File[] segments = segmentFiles();
+		File newest = segments[segments.length - 1];
+		long length = newest.length();
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(newest, true));
+		try {
+			out.writeInt(100); // record length, followed by only part of the record
+			out.write(new byte[10]);
+		} finally {
+			out.close();
+		}
+
+		log = new EventLog(folder.getRoot(), 0, 0);
+		assertEquals(length, newest.length());
+		assertEquals(Arrays.asList("1", "2"), params(log.query("", "")));
+		log.append(iso(BASE + 2000), "a", "org.light", "3");
+		log.flush();
+		assertEquals(Arrays.asList("1", "2", "3"), params(log.query("", "")));
+	}
+
+	@Test
+	public void deletesOldestSegmentsAboveMaximumSize() throws Exception {
+		log = new EventLog(folder.getRoot(), 0, 2048, 256, 1000);
+		for (int i = 0; i < 200; i++) {
+			log.append(iso(BASE + i), "a", "org.light", Integer.toString(i));
+			if (i % 10 == 9) log.flush();
+		}
+		log.flush();
+
+		long total = 0;
+		for (File file : segmentFiles()) {
+			total += file.length();
+		}
+		assertTrue("log size " + total, total <= 2048 + 256);
+		List<String> params = params(log.query("", ""));
+		assertEquals("199", params.get(params.size() - 1));
+		assertTrue(params.size() < 200);
+		assertEquals(params.size(), Integer.parseInt(params.get(params.size() - 1)) - Integer.parseInt(params.get(0)) + 1);
+	}
+
+	@Test
+	public void deletesSegmentsOlderThanMaximumAge() throws Exception {
+		long now = System.currentTimeMillis();
+		log = new EventLog(folder.getRoot(), 60 * 60 * 1000, 0, 256, 1000);
+		for (int i = 0; i < 20; i++) {
+			log.append(iso(now - 2 * 24 * 60 * 60 * 1000L + i), "a", "org.light", "old" + i);
+		}
+		log.flush();
+		for (int i = 0; i < 20; i++) {
+			log.append(iso(now + i), "a", "org.light", "new" + i);
+		}
+		log.flush();
+
+		List<String> params = params(log.query("", ""));
+		assertEquals(20, params.size());
+		assertEquals("new0", params.get(0));
+	}
+
+	@Test
+	public void deletesActiveSegmentOlderThanMaximumAge() throws Exception {
+		long now = System.currentTimeMillis();
+		log = new EventLog(folder.getRoot(), 60 * 60 * 1000, 0);
+		log.append(iso(now - 2 * 24 * 60 * 60 * 1000L), "a", "org.light", "old");
+		log.flush();
+
+		assertEquals(0, log.query("", "").size());
+		assertEquals(1, segmentFiles().length);
+		assertEquals(0, segmentFiles()[0].length());
+	}
+
+	@Test
+	public void skipsEventThatCantBeWritten() throws Exception {
+		log = new EventLog(folder.getRoot(), 0, 0);
+		log.append(iso(BASE), "a", "org.light", "1");
+		log.append(iso(BASE + 1000), null, "org.light", "2");
+		log.flush();
+		log.append(iso(BASE + 2000), "a", "org.light", "3");
+		log.flush();
+
+		assertEquals(1, log.getFailedCount());
+		assertEquals(Arrays.asList("1", "3"), params(log.query("", "")));
+		log.close();
+		log = new EventLog(folder.getRoot(), 0, 0);
+		assertEquals(Arrays.asList("1", "3"), params(log.query("", "")));
+	}
+
+	private File[] segmentFiles() {
+		File[] files = folder.getRoot().listFiles();
+		Arrays.sort(files);
+		int count = 0;
+		for (File file : files) {
+			if (file.getName().endsWith(".log")) files[count++] = file;
+		}
+		return Arrays.copyOf(files, count);
+	}
+
+	private static List<String> params(List<String[]> events) {
+		String[] params = new String[events.size()];
+		for (int i = 0; i < params.length; i++) {
+			params[i] = events.get(i)[3];
+		}
+		return Arrays.asList(params);
+	}
+
+	private static String iso(long millis) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date(millis));
+	}
+}
@@ -0,0 +1,581 @@
+package cc.mewa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cc.mewa.MewaConnection.InitConnectionException;
+import cc.mewa.tools.MockMewaServer;
+
+/**
+ * Runs MewaConnection against MockMewaServer on a local port.
+ */
+public class MewaConnectionTest {
+	private static final long TIMEOUT = 5;
+
+	private MockMewaServer server;
+	private MewaConnection publisher;
+	private MewaConnection connection;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new MockMewaServer(0);
+		server.start();
+		publisher = connect("publisher", new String[0]);
+		connection = connect("subscriber", new String[] { "" });
+	}
+
+	@After
+	public void tearDown() {
+		connection.close();
+		publisher.close();
+		server.stop();
+	}
+
+	@Test
+	public void repliesMatchConcurrentRequests() throws Exception {
+		publisher.sendEvent("a.light", "1");
+		publisher.sendEvent("a.switch", "2");
+		publisher.sendEvent("b.light", "3");
+		publisher.requestLastEventsAndWait("", "", TIMEOUT, TimeUnit.SECONDS); // events are stored once the reply comes
+
+		final String[] prefixes = { "a.", "b.", "", "a.switch", "c." };
+		ExecutorService threads = Executors.newFixedThreadPool(prefixes.length);
+		try {
+			for (int round = 0; round < 10; round++) {
+				List<Future<List<String>>> replies = new ArrayList<Future<List<String>>>();
+				for (final String prefix : prefixes) {
+					replies.add(threads.submit(new Callable<List<String>>() {
+						@Override
+						public List<String> call() throws Exception {
+							return params(connection.requestLastEventsAndWait("", prefix, TIMEOUT, TimeUnit.SECONDS));
+						}
+					}));
+				}
+				assertEquals(Arrays.asList("1", "2"), replies.get(0).get());
+				assertEquals(Arrays.asList("3"), replies.get(1).get());
+				assertEquals(Arrays.asList("1", "2", "3"), replies.get(2).get());
+				assertEquals(Arrays.asList("2"), replies.get(3).get());
+				assertEquals(Collections.<String>emptyList(), replies.get(4).get());
+			}
+		} finally {
+			threads.shutdown();
+		}
+	}
+
+	@Test
+	public void repliesMatchRequestsMixedWithUnawaitedOnes() throws Exception {
+		publisher.sendEvent("a.light", "1");
+		publisher.sendEvent("b.light", "2");
+		publisher.requestLastEventsAndWait("", "", TIMEOUT, TimeUnit.SECONDS);
+
+		connection.requestLastEvents("", "a.");
+		MewaFuture<List<String[]>> b = connection.requestLastEventsAsync("", "b.");
+		connection.requestLastEvents("", "");
+		MewaFuture<List<String[]>> a = connection.requestLastEventsAsync("", "a.");
+		assertEquals(Arrays.asList("2"), params(b.get(TIMEOUT, TimeUnit.SECONDS)));
+		assertEquals(Arrays.asList("1"), params(a.get(TIMEOUT, TimeUnit.SECONDS)));
+	}
+
+	@Test
+	public void lostReplyDoesntShiftCorrelation() throws Exception {
+		publisher.sendEvent("a.x", "1");
+		publisher.sendEvent("a.y", "2");
+		publisher.requestLastEventsAndWait("", "", TIMEOUT, TimeUnit.SECONDS);
+
+		MewaFuture<List<String[]>> lost = requestWithLostReply("a.x");
+		MewaFuture<List<String[]>> y = connection.requestLastEventsAsync("", "a.y");
+		assertEquals(Arrays.asList("2"), params(y.get(TIMEOUT, TimeUnit.SECONDS)));
+		assertFailsWithIOException(lost);
+		assertEquals(Arrays.asList("1"), params(connection.requestLastEventsAndWait("", "a.x", TIMEOUT, TimeUnit.SECONDS)));
+	}
+
+	@Test
+	public void requestWithoutReplyExpires() throws Exception {
+		connection.setReplyTimeout(300);
+		MewaFuture<List<String[]>> lost = requestWithLostReply("a.");
+		assertFailsWithIOException(lost);
+		MewaFuture<List<String[]>> retried = connection.requestLastEventsAsync("", "a.");
+		assertNotSame(lost, retried);
+		retried.get(TIMEOUT, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void identicalRequestsInFlightShareFuture() throws Exception {
+		server.setLatencyMillis(200);
+		MewaFuture<List<String[]>> first = connection.requestLastEventsAsync("", "a.");
+		assertSame(first, connection.requestLastEventsAsync("", "a."));
+		assertNotSame(first, connection.requestLastEventsAsync("", "b."));
+		first.get(TIMEOUT, TimeUnit.SECONDS);
+		assertNotSame(first, connection.requestLastEventsAsync("", "a."));
+	}
+
+	@Test
+	public void cachedResponseIsReusedWithinTtl() throws Exception {
+		connection.setResponseCacheTtl(60000);
+		MewaFuture<List<String[]>> first = connection.requestLastEventsAsync("", "a.");
+		first.get(TIMEOUT, TimeUnit.SECONDS);
+		assertSame(first, connection.requestLastEventsAsync("", "a."));
+	}
+
+	@Test
+	public void devicesReplyListsConnectedDevices() throws Exception {
+		List<String> devices = connection.requestDevicesListAndWait(TIMEOUT, TimeUnit.SECONDS);
+		Collections.sort(devices = new ArrayList<String>(devices));
+		assertEquals(Arrays.asList("publisher", "subscriber"), devices);
+	}
+
+	@Test
+	public void listenerModifyingListDoesntChangeResponses() throws Exception {
+		publisher.sendEvent("a.light", "1");
+		publisher.requestLastEventsAndWait("", "", TIMEOUT, TimeUnit.SECONDS);
+		connection.setOnMessageListener(new ClearingListener());
+		connection.setReceiveQueueCapacity(100);
+
+		assertEquals(Arrays.asList("1"), params(connection.requestLastEventsAndWait("", "", TIMEOUT, TimeUnit.SECONDS)));
+		assertEquals(2, connection.requestDevicesListAndWait(TIMEOUT, TimeUnit.SECONDS).size());
+		MewaFrame frame;
+		int checked = 0;
+		while (checked < 2 && (frame = connection.receive(TIMEOUT, TimeUnit.SECONDS)) != null) {
+			if (frame.getType().equals(MewaFrame.LAST_EVENTS)) {
+				assertEquals(1, frame.getEvents().size());
+				checked++;
+			} else if (frame.getType().equals(MewaFrame.DEVICES_EVENT)) {
+				assertEquals(2, frame.getDevices().size());
+				checked++;
+			}
+		}
+		assertEquals(2, checked);
+	}
+
+	@Test
+	public void throwingStreamListenerDoesntCloseConnection() throws Exception {
+		publisher.sendEvent("a.light", "1");
+		publisher.sendEvent("a.switch", "2");
+		publisher.requestLastEventsAndWait("", "", TIMEOUT, TimeUnit.SECONDS);
+		connection.setOnLastEventsStreamListener(new ThrowingStreamListener());
+
+		assertEquals(Arrays.asList("1", "2"), params(connection.requestLastEventsAndWait("", "", TIMEOUT, TimeUnit.SECONDS)));
+		assertEquals(4, connection.getListenerFailureCount(null));
+		assertTrue(connection.isConnectedToChannel());
+		assertEquals(Arrays.asList("2"), params(connection.requestLastEventsAndWait("", "a.switch", TIMEOUT, TimeUnit.SECONDS)));
+	}
+
+	@Test
+	public void resubscribingKeepsResumePointsOfSubscribedPrefixes() throws Exception {
+		connection.setResumeTimestamp("a.", "2014-11-04T10:15:30Z");
+		connection.setResumeTimestamp("b.", "2014-11-04T10:15:31Z");
+		connection.subscribeToEvents(new String[] { "a.", "c." });
+		assertEquals("2014-11-04T10:15:30Z", connection.getResumeTimestamp("a."));
+		assertEquals(null, connection.getResumeTimestamp("b."));
+	}
+
+	@Test
+	public void throwingListenerDoesntAffectOthers() throws Exception {
+		RecordingListener throwing = new RecordingListener(true);
+		RecordingListener recording = new RecordingListener(false);
+		connection.setOnMessageListener(throwing);
+		connection.addOnMessageListener(recording);
+
+		publisher.sendEvent("a.light", "1");
+		assertEquals("event a.light", recording.next());
+		assertEquals("event a.light", throwing.next());
+		assertEquals(1, connection.getListenerFailureCount(throwing));
+		assertEquals(0, connection.getListenerFailureCount(recording));
+		assertEquals(1, connection.getListenerFailureCount(null));
+	}
+
+	@Test
+	public void listenerGetsOnlyCallbacksOfItsMask() throws Exception {
+		RecordingListener lastEventsOnly = new RecordingListener(false);
+		connection.addOnMessageListener(lastEventsOnly, ListenerMask.LAST_EVENTS);
+
+		publisher.sendEvent("a.light", "1");
+		publisher.requestLastEventsAndWait("", "", TIMEOUT, TimeUnit.SECONDS);
+		connection.requestLastEventsAndWait("", "a.", TIMEOUT, TimeUnit.SECONDS);
+		assertEquals("last 1", lastEventsOnly.next());
+		connection.requestDevicesListAndWait(TIMEOUT, TimeUnit.SECONDS);
+		connection.requestLastEventsAndWait("", "b.", TIMEOUT, TimeUnit.SECONDS);
+		assertEquals("last 0", lastEventsOnly.next());
+	}
+
+	@Test
+	public void executorListenerRunsOnExecutorHoldingPowerHook() throws Exception {
+		CountingPowerHook hook = new CountingPowerHook();
+		connection.setPowerHook(hook);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			RecordingListener async = new RecordingListener(false);
+			async.hook = hook;
+			connection.addOnMessageListener(async, ListenerMask.EVENT | ListenerMask.CLOSED, executor);
+
+			publisher.sendEvent("a.light", "1");
+			assertEquals("event a.light", async.next());
+			assertNotSame(Thread.currentThread(), async.thread);
+			server.disconnectAll();
+			assertEquals("closed", async.next());
+			assertTrue("hook not held during onClosed", async.held);
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(TIMEOUT, TimeUnit.SECONDS));
+			assertEquals(0, hook.held.get());
+			assertTrue("released more than acquired", hook.balanced);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void sessionResumeReplaysMissedEvents() throws Exception {
+		MewaConnection resumed = new MewaConnection(server.getUri(), "test.channel", "resumed", "password");
+		resumed.subscribeToEvents(new String[] { "a." });
+		resumed.setSessionResume(true);
+		resumed.setEventDeduplicator(new EventDeduplicator(1 << 16, 0.001, 60000));
+		RecordingListener listener = new RecordingListener(false);
+		resumed.addOnMessageListener(listener, ListenerMask.EVENT);
+		resumed.connect();
+		try {
+			assertTrue(resumed.awaitConnected(TIMEOUT, TimeUnit.SECONDS));
+			publisher.sendEvent("a.1", "1");
+			assertEquals("event a.1", listener.next());
+			String point = resumed.getResumeTimestamp("a.");
+			assertNotNull(point);
+
+			resumed.close();
+			Thread.sleep(5); // next event gets later timestamp
+			publisher.sendEvent("a.2", "2");
+			publisher.sendEvent("b.1", "3");
+			publisher.requestLastEventsAndWait("", "", TIMEOUT, TimeUnit.SECONDS);
+
+			ResumeStreamListener replay = new ResumeStreamListener(resumed);
+			resumed.setOnLastEventsStreamListener(replay);
+			resumed.connect();
+			assertTrue(resumed.awaitConnected(TIMEOUT, TimeUnit.SECONDS));
+			assertTrue(replay.ended.await(TIMEOUT, TimeUnit.SECONDS));
+			assertEquals(Arrays.asList("a.2"), replay.eventIds); // a.1 at the resume point is filtered out
+			assertEquals(Arrays.asList(point), replay.pointsDuringReplay);
+			resumed.setOnLastEventsStreamListener(null);
+			resumed.requestLastEventsAndWait("", "none.", TIMEOUT, TimeUnit.SECONDS); // replay fully processed by now
+			assertEquals(replay.times.get(0), resumed.getResumeTimestamp("a."));
+		} finally {
+			resumed.close();
+		}
+	}
+
+	@Test
+	public void connectTimingsIncludeFailover() throws Exception {
+		MewaConnection failover = new MewaConnection(new String[] { "ws://127.0.0.1:1/ws", server.getUri() }, "test.channel", "failover", "password");
+		failover.connect();
+		try {
+			assertTrue(failover.awaitConnected(TIMEOUT, TimeUnit.SECONDS));
+			ConnectTimings timings = failover.getConnectTimings();
+			assertTrue(timings.getFailoverNanos() > 0);
+			assertEquals(timings.getFailoverNanos() + timings.getResolveNanos() + timings.getHandshakeNanos() + timings.getJoinNanos(),
+					timings.getTotalNanos());
+		} finally {
+			failover.close();
+		}
+	}
+
+	@Test
+	public void failedConnectDoesntBreakOtherConnections() throws Exception {
+		MewaConnection unreachable = new MewaConnection("ws://127.0.0.1:1/ws", "test.channel", "unreachable", "password");
+		try {
+			unreachable.connect();
+			fail("connected to closed port");
+		} catch (InitConnectionException e) {
+			// expected
+		}
+		assertEquals(2, connection.requestDevicesListAndWait(TIMEOUT, TimeUnit.SECONDS).size());
+		MewaConnection another = connect("another", new String[0]);
+		another.close();
+	}
+
+	@Test
+	public void everyReceiverGetsClosedFrame() throws Exception {
+		connection.setReceiveQueueCapacity(100);
+		ExecutorService threads = Executors.newFixedThreadPool(3);
+		try {
+			List<Future<MewaFrame>> receivers = new ArrayList<Future<MewaFrame>>();
+			for (int i = 0; i < 3; i++) {
+				receivers.add(threads.submit(new Callable<MewaFrame>() {
+					@Override
+					public MewaFrame call() throws Exception {
+						MewaFrame frame;
+						while (!(frame = connection.receive()).getType().equals(MewaFrame.CLOSED)) {
+							// skip
+						}
+						return frame;
+					}
+				}));
+			}
+			connection.close();
+			for (Future<MewaFrame> receiver : receivers) {
+				assertEquals(MewaFrame.CLOSED, receiver.get(TIMEOUT, TimeUnit.SECONDS).getType());
+			}
+			assertEquals(MewaFrame.CLOSED, connection.receive().getType());
+			assertEquals(MewaFrame.CLOSED, connection.receive(TIMEOUT, TimeUnit.SECONDS).getType());
+		} finally {
+			threads.shutdownNow();
+		}
+	}
+
+	@Test
+	public void failedConnectEndsConnection() throws Exception {
+		MewaConnection unreachable = new MewaConnection("ws://127.0.0.1:1/ws", "test.channel", "unreachable", "password");
+		try {
+			unreachable.connect();
+			fail("connected to closed port");
+		} catch (InitConnectionException e) {
+			// expected
+		}
+		long start = System.nanoTime();
+		assertFalse(unreachable.awaitConnected(TIMEOUT, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+	}
+
+	@Test
+	public void pendingRequestsFailWhenConnectionCloses() throws Exception {
+		server.setLatencyMillis(1000);
+		MewaFuture<List<String[]>> lastEvents = connection.requestLastEventsAsync("", "");
+		MewaFuture<List<String>> devices = connection.requestDevicesListAsync();
+		connection.close();
+		assertFailsWithIOException(lastEvents);
+		assertFailsWithIOException(devices);
+		assertFailsWithIOException(connection.requestLastEventsAsync("", "other"));
+	}
+
+	private MewaFuture<List<String[]>> requestWithLostReply(String eventPrefix) throws InterruptedException {
+		long lost = server.getFramesLost();
+		server.setLossRate(1);
+		try {
+			MewaFuture<List<String[]>> future = connection.requestLastEventsAsync("", eventPrefix);
+			long deadline = System.currentTimeMillis() + TIMEOUT * 1000;
+			while (server.getFramesLost() == lost && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			return future;
+		} finally {
+			server.setLossRate(0);
+		}
+	}
+
+	private void assertFailsWithIOException(Future<?> future) throws Exception {
+		try {
+			future.get(TIMEOUT, TimeUnit.SECONDS);
+			fail("request didn't fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	private MewaConnection connect(String device, String[] subscribedEvents) throws Exception {
+		MewaConnection mewaConnection = new MewaConnection(server.getUri(), "test.channel", device, "password");
+		mewaConnection.subscribeToEvents(subscribedEvents);
+		mewaConnection.connect();
+		assertTrue(mewaConnection.awaitConnected(TIMEOUT, TimeUnit.SECONDS));
+		return mewaConnection;
+	}
+
+	/**
+	 * ClearingListener - empties lists it receives
+	 */
+	private static class ClearingListener extends OnMessageAdapter {
+		@Override
+		public void onLastEvents(String timestamp, List<String[]> eventList) {
+			eventList.clear();
+		}
+
+		@Override
+		public void onDevicesEvent(String timestamp, List<String> deviceList) {
+			deviceList.clear();
+		}
+
+		@Override
+		public void onConnected() {
+
+		}
+
+		@Override
+		public void onClosed() {
+
+		}
+
+		@Override
+		public void onError(String reason) {
+
+		}
+
+		@Override
+		public void onAck() {
+
+		}
+	}
+
+	/**
+	 * RecordingListener - keeps descriptions of received callbacks, optionally failing after each
+	 */
+	private static class RecordingListener extends OnMessageAdapter {
+		private final BlockingQueue<String> calls = new LinkedBlockingQueue<String>();
+		private final boolean throwing;
+		volatile CountingPowerHook hook;
+		volatile Thread thread;
+		volatile boolean held;
+
+		RecordingListener(boolean throwing) {
+			this.throwing = throwing;
+		}
+
+		String next() throws InterruptedException {
+			return calls.poll(TIMEOUT, TimeUnit.SECONDS);
+		}
+
+		private void record(String call) {
+			thread = Thread.currentThread();
+			if (hook != null) {
+				try {
+					Thread.sleep(100); // give unbalanced release time to happen
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				held = hook.held.get() > 0;
+			}
+			calls.add(call);
+			if (throwing) throw new IllegalStateException(call);
+		}
+
+		@Override
+		public void onEvent(String timestamp, String fromDevice, String eventId, String params) {
+			record("event " + eventId);
+		}
+
+		@Override
+		public void onLastEvents(String timestamp, List<String[]> eventList) {
+			record("last " + eventList.size());
+		}
+
+		@Override
+		public void onConnected() {
+
+		}
+
+		@Override
+		public void onClosed() {
+			record("closed");
+		}
+
+		@Override
+		public void onError(String reason) {
+
+		}
+
+		@Override
+		public void onAck() {
+
+		}
+	}
+
+	/**
+	 * CountingPowerHook - counts holds, noting release without acquire
+	 */
+	private static class CountingPowerHook implements PowerHook {
+		final AtomicInteger held = new AtomicInteger();
+		volatile boolean balanced = true;
+
+		@Override
+		public void acquire() {
+			held.incrementAndGet();
+		}
+
+		@Override
+		public void release() {
+			if (held.decrementAndGet() < 0) {
+				balanced = false;
+				held.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * ResumeStreamListener - keeps replayed events and the resume point seen while they arrive
+	 */
+	private static class ResumeStreamListener implements OnLastEventsStreamListener {
+		private final MewaConnection connection;
+		final List<String> eventIds = new ArrayList<String>();
+		final List<String> times = new ArrayList<String>();
+		final List<String> pointsDuringReplay = new ArrayList<String>();
+		final CountDownLatch ended = new CountDownLatch(1);
+
+		ResumeStreamListener(MewaConnection connection) {
+			this.connection = connection;
+		}
+
+		@Override
+		public void onLastEventsStart() {
+
+		}
+
+		@Override
+		public void onLastEvent(String timestamp, String fromDevice, String eventId, String params) {
+			eventIds.add(eventId);
+			times.add(timestamp);
+			pointsDuringReplay.add(connection.getResumeTimestamp("a."));
+		}
+
+		@Override
+		public void onLastEventsEnd(String timestamp) {
+			ended.countDown();
+		}
+	}
+
+	/**
+	 * ThrowingStreamListener - fails in every callback
+	 */
+	private static class ThrowingStreamListener implements OnLastEventsStreamListener {
+		@Override
+		public void onLastEventsStart() {
+			throw new IllegalStateException("start");
+		}
+
+		@Override
+		public void onLastEvent(String timestamp, String fromDevice, String eventId, String params) {
+			throw new IllegalStateException("event");
+		}
+
+		@Override
+		public void onLastEventsEnd(String timestamp) {
+			throw new IllegalStateException("end");
+		}
+	}
+
+	private static List<String> params(List<String[]> events) {
+		List<String> params = new ArrayList<String>();
+		for (String[] event : events) {
+			params.add(event[3]);
+		}
+		return params;
+	}
+}
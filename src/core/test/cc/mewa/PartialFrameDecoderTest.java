@@ -0,0 +1,96 @@
+package cc.mewa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PartialFrameDecoderTest {
+	private static final String FIRST = "{\"time\":\"2014-11-04T10:15:30.123Z\",\"device\":\"a\",\"id\":\"org.light\",\"params\":\"{\\\"on\\\":[1,2]}\"}";
+	private static final String SECOND = "{\"time\":\"2014-11-04T10:15:31.000Z\",\"device\":\"b\",\"id\":\"org.switch\",\"params\":\"]}\\\\\"}";
+	private static final String FRAME = "{\"type\":\"last-events\",\"time\":\"2014-11-04T10:15:32Z\",\"events\":[" + FIRST + "," + SECOND + "]}";
+	private static final String REST = "{\"type\":\"last-events\",\"time\":\"2014-11-04T10:15:32Z\",\"events\":[]}";
+
+	private final RecordingDecoder decoder = new RecordingDecoder();
+
+	@Test
+	public void streamsElementsOfWholeFrame() {
+		decoder.feed(FRAME);
+		assertEquals(1, decoder.arrayStarts);
+		assertEquals(Arrays.asList(FIRST, SECOND), decoder.elements);
+		assertEquals(REST, decoder.finish());
+		assertFalse(decoder.isStarted());
+	}
+
+	@Test
+	public void streamsElementsAtEverySplitPoint() {
+		for (int split = 1; split < FRAME.length(); split++) {
+			RecordingDecoder split2 = new RecordingDecoder();
+			split2.feed(FRAME.substring(0, split));
+			assertTrue(split2.isStarted());
+			split2.feed(FRAME.substring(split));
+			assertEquals("split at " + split, Arrays.asList(FIRST, SECOND), split2.elements);
+			assertEquals("split at " + split, REST, split2.finish());
+		}
+	}
+
+	@Test
+	public void streamsElementsFedCharByChar() {
+		for (int i = 0; i < FRAME.length(); i++) {
+			decoder.feed(FRAME.substring(i, i + 1));
+		}
+		assertEquals(Arrays.asList(FIRST, SECOND), decoder.elements);
+		assertEquals(REST, decoder.finish());
+	}
+
+	@Test
+	public void ignoresArraysOfOtherKeysAndNestedEventsKey() {
+		String frame = "{\"type\":\"devices-event\",\"devices\":[\"events\",\"x\"],\"nested\":{\"events\":[1]}}";
+		decoder.feed(frame);
+		assertEquals(0, decoder.arrayStarts);
+		assertTrue(decoder.elements.isEmpty());
+		assertEquals(frame, decoder.finish());
+	}
+
+	@Test
+	public void handlesEmptyArray() {
+		decoder.feed(REST);
+		assertEquals(1, decoder.arrayStarts);
+		assertTrue(decoder.elements.isEmpty());
+		assertEquals(REST, decoder.finish());
+	}
+
+	@Test
+	public void resetDropsPartialFrame() {
+		decoder.feed(FRAME.substring(0, FRAME.indexOf(SECOND) + 10));
+		decoder.reset();
+		assertFalse(decoder.isStarted());
+		decoder.elements.clear();
+		decoder.feed(FRAME);
+		assertEquals(Arrays.asList(FIRST, SECOND), decoder.elements);
+		assertEquals(REST, decoder.finish());
+	}
+
+	/**
+	 * RecordingDecoder - keeps streamed elements
+	 */
+	private static class RecordingDecoder extends PartialFrameDecoder {
+		final List<String> elements = new ArrayList<String>();
+		int arrayStarts;
+
+		@Override
+		protected void onArrayStart() {
+			arrayStarts++;
+		}
+
+		@Override
+		protected void onElement(String json) {
+			elements.add(json);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package cc.mewa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class TimestampParserTest {
+	private final TimestampParser parser = new TimestampParser();
+
+	@Test
+	public void parsesEpoch() {
+		assertEquals(0L, parser.parseMillis("1970-01-01T00:00:00Z"));
+		assertEquals(0L, parser.parseMillis("1970-01-01T00:00:00"));
+	}
+
+	@Test
+	public void parsesFractionOfSecond() {
+		long base = utc(2014, 11, 4, 10, 15, 30);
+		assertEquals(base + 123, parser.parseMillis("2014-11-04T10:15:30.123Z"));
+		assertEquals(base + 100, parser.parseMillis("2014-11-04T10:15:30.1Z"));
+		assertEquals(base * 1000000L + 123456789L, parser.parseNanos("2014-11-04T10:15:30.123456789Z"));
+	}
+
+	@Test
+	public void appliesZoneOffset() {
+		long utc = parser.parseMillis("2014-11-04T10:15:30Z");
+		assertEquals(utc, parser.parseMillis("2014-11-04T12:15:30+02:00"));
+		assertEquals(utc, parser.parseMillis("2014-11-04T12:15:30+0200"));
+		assertEquals(utc, parser.parseMillis("2014-11-04T12:15:30+02"));
+		assertEquals(utc, parser.parseMillis("2014-11-04T05:15:30-05:00"));
+	}
+
+	@Test
+	public void matchesCalendarAcrossCachedPrefixChanges() {
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		calendar.clear();
+		calendar.set(1999, Calendar.DECEMBER, 31, 22, 59, 59);
+		for (int i = 0; i < 2000; i++) {
+			String timestamp = String.format("%04d-%02d-%02dT%02d:%02d:%02d.%03dZ", calendar.get(Calendar.YEAR),
+					calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH), calendar.get(Calendar.HOUR_OF_DAY),
+					calendar.get(Calendar.MINUTE), calendar.get(Calendar.SECOND), calendar.get(Calendar.MILLISECOND));
+			assertEquals(timestamp, calendar.getTimeInMillis(), parser.parseMillis(timestamp));
+			calendar.add(Calendar.MILLISECOND, 997 * 61);
+		}
+	}
+
+	@Test
+	public void acceptsLeapDay() {
+		assertEquals(utc(2016, 2, 29, 0, 0, 0), parser.parseMillis("2016-02-29T00:00:00Z"));
+		assertEquals(utc(2000, 2, 29, 0, 0, 0), parser.parseMillis("2000-02-29T00:00:00Z"));
+	}
+
+	@Test
+	public void rejectsMalformedTimestamps() {
+		String[] invalid = { "", "2014-11-04", "2014-11-04 10:15:30Z", "2014-11-04T10:15:3xZ", "2014-11-04T10:15:30+2:00",
+				"2014-11-04T10:15:30.Z", "2014-13-04T10:15:30Z", "2014-11-04T10:15:30123Z", "2014-11-04T10:15:30.5.5Z",
+				"2014-11-04T10:15:30,5,5Z", "2014-02-31T10:15:30Z", "2014-02-29T10:15:30Z", "2014-04-31T10:15:30Z", "1900-02-29T10:15:30Z" };
+		for (String timestamp : invalid) {
+			try {
+				parser.parseMillis(timestamp);
+				fail("accepted " + timestamp);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	private static long utc(int year, int month, int day, int hour, int minute, int second) {
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		calendar.clear();
+		calendar.set(year, month - 1, day, hour, minute, second);
+		return calendar.getTimeInMillis();
+	}
+}
@@ -0,0 +1,44 @@
+package cc.mewa.android;
+
+import android.os.PowerManager.WakeLock;
+import cc.mewa.PowerHook;
+
+/**
+ * WakeLockPowerHook - PowerHook holding Android's wake lock during listener processing.
+ * Example: connection.setPowerHook(new WakeLockPowerHook(powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "mewa")))
+ */
+public class WakeLockPowerHook implements PowerHook {
+	private final WakeLock wakeLock;
+	
+	/**
+	 * Constructor for WakeLockPowerHook.
+	 * 
+	 * @param wakeLock - (preferably partial) wake lock
+	 */
+	public WakeLockPowerHook(WakeLock wakeLock) {
+		this.wakeLock = wakeLock;
+	}
+	
+	/**
+	 * Returns the wake lock.
+	 * 
+	 * @return - wake lock
+	 */
+	public WakeLock getWakeLock() {
+		return wakeLock;
+	}
+
+	@Override
+	public void acquire() {
+		wakeLock.acquire();
+	}
+
+	@Override
+	public void release() {
+		synchronized (wakeLock) {
+			if (wakeLock.isHeld()) {
+				wakeLock.release();
+			}
+		}
+	}
+}
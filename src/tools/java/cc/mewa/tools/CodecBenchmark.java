@@ -0,0 +1,153 @@
+package cc.mewa.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cc.mewa.MewaCodec;
+import cc.mewa.MewaDecoder;
+import cc.mewa.MewaDispatcher;
+import cc.mewa.MewaEncoder;
+
+/**
+ * CodecBenchmark - measures decode and encode throughput of MewaCodecs on the same mix of frames.
+ * Frames are JSON, as the channel sends them: mostly events, every 16th last events with 8 entries.
+ * Run: java -cp ... cc.mewa.tools.CodecBenchmark [iterations] [codec class ...]
+ */
+public class CodecBenchmark {
+	private static final int ROUNDS = 5;
+	private static final String[] DEVICES = { "android", "kitchen.light", "hall.switch", "thermostat", "gateway" };
+	private static final String[] EVENTS = { "org.fi24.light", "org.fi24.switch", "org.fi24.temperature" };
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		List<MewaCodec> codecs = new ArrayList<MewaCodec>();
+		for (int i = 1; i < args.length; i++) {
+			codecs.add((MewaCodec) Class.forName(args[i]).getDeclaredConstructor().newInstance());
+		}
+		if (codecs.isEmpty()) {
+			codecs.add((MewaCodec) Class.forName("cc.mewa.GsonCodec").getDeclaredConstructor().newInstance());
+		}
+		String[] frames = sampleFrames(1024);
+
+		for (int round = 1; round <= ROUNDS; round++) {
+			System.out.println("Round " + round + "/" + ROUNDS);
+			for (MewaCodec codec : codecs) {
+				decode(codec, iterations, frames);
+				encode(codec, iterations);
+			}
+		}
+	}
+
+	private static void decode(MewaCodec codec, int iterations, String[] frames) {
+		MewaDecoder decoder = codec.createDecoder();
+		CountingDispatcher dispatcher = new CountingDispatcher();
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			decoder.decode(frames[i & (frames.length - 1)], dispatcher);
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format("  %-24s decode %8.1f ns/frame (%d callbacks)", codec.getClass().getSimpleName(),
+				(double) elapsed / iterations, dispatcher.count));
+	}
+
+	private static void encode(MewaCodec codec, int iterations) {
+		MewaEncoder encoder = codec.getEncoder();
+		long length = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			length += encoder.sendEvent(EVENTS[i % EVENTS.length], "21.5", false).length();
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format("  %-24s encode %8.1f ns/frame (%d chars)", codec.getClass().getSimpleName(),
+				(double) elapsed / iterations, length));
+	}
+
+	private static String[] sampleFrames(int count) {
+		String[] frames = new String[count];
+		for (int i = 0; i < count; i++) {
+			String device = DEVICES[i % DEVICES.length];
+			String event = EVENTS[i % EVENTS.length];
+			String time = String.format("2014-11-04T10:%02d:%02d.%03dZ", (i / 60) % 60, i % 60, i % 1000);
+			if (i % 16 == 15) {
+				StringBuilder sb = new StringBuilder("{\"type\":\"last-events\",\"time\":\"" + time + "\",\"events\":[");
+				for (int j = 0; j < 8; j++) {
+					if (j > 0) sb.append(',');
+					sb.append("{\"time\":\"").append(time).append("\",\"device\":\"").append(DEVICES[j % DEVICES.length])
+							.append("\",\"id\":\"").append(EVENTS[j % EVENTS.length]).append("\",\"params\":\"").append(j).append("\"}");
+				}
+				frames[i] = sb.append("]}").toString();
+			} else {
+				frames[i] = "{\"type\":\"event\",\"time\":\"" + time + "\",\"device\":\"" + device + "\",\"id\":\"" + event
+						+ "\",\"params\":\"" + i + "\"}";
+			}
+		}
+		return frames;
+	}
+
+	/**
+	 * CountingDispatcher - counts callbacks, so decoding can't be optimized away
+	 */
+	private static class CountingDispatcher implements MewaDispatcher {
+		long count;
+
+		@Override
+		public void onEvent(String timestamp, String device, String eventId, String params) {
+			count++;
+		}
+
+		@Override
+		public void onMessage(String timestamp, String device, String msgId, String params) {
+			count++;
+		}
+
+		@Override
+		public void onAck() {
+			count++;
+		}
+
+		@Override
+		public void onDeviceJoinedChannel(String timestamp, String device) {
+			count++;
+		}
+
+		@Override
+		public void onDeviceLeftChannel(String timestamp, String device) {
+			count++;
+		}
+
+		@Override
+		public void onLastEventsStart() {
+			count++;
+		}
+
+		@Override
+		public void onLastEvent(String timestamp, String device, String eventId, String params) {
+			count++;
+		}
+
+		@Override
+		public void onLastEventsEnd(String timestamp) {
+			count++;
+		}
+
+		@Override
+		public void onDevicesEvent(String timestamp, List<String> devices) {
+			count++;
+		}
+
+		@Override
+		public void onConnected() {
+			count++;
+		}
+
+		@Override
+		public void onDisconnected() {
+			count++;
+		}
+
+		@Override
+		public void onError(String reason) {
+			count++;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package cc.mewa.tools;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram - log-linear histogram of latencies in the manner of HdrHistogram, with about 0.1% value precision.
+ * Values up to 2048 are counted exactly, larger ones in 1024 sub-buckets per power of two. Recording is lock-free
+ * and can be done from many threads at once.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 10;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+
+	private final long highestTrackableValue;
+	private final AtomicLongArray counts;
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalSum = new AtomicLong();
+	private final AtomicLong maxValue = new AtomicLong();
+
+	/**
+	 * Constructor for LatencyHistogram.
+	 *
+	 * @param highestTrackableValue - larger values are recorded as this value
+	 */
+	public LatencyHistogram(long highestTrackableValue) {
+		this.highestTrackableValue = Math.max(LINEAR_LIMIT, highestTrackableValue);
+		counts = new AtomicLongArray(indexOf(this.highestTrackableValue) + 1);
+	}
+
+	/**
+	 * Records single value.
+	 *
+	 * @param value - non-negative value, e.g. latency in microseconds
+	 */
+	public void recordValue(long value) {
+		if (value < 0) value = 0;
+		if (value > highestTrackableValue) value = highestTrackableValue;
+		counts.incrementAndGet(indexOf(value));
+		totalCount.incrementAndGet();
+		totalSum.addAndGet(value);
+		long max;
+		while (value > (max = maxValue.get()) && !maxValue.compareAndSet(max, value)) {
+			// retry
+		}
+	}
+
+	/**
+	 * Returns number of recorded values.
+	 *
+	 * @return - count
+	 */
+	public long getTotalCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * Returns the largest recorded value.
+	 *
+	 * @return - maximum, exact
+	 */
+	public long getMaxValue() {
+		return maxValue.get();
+	}
+
+	/**
+	 * Returns mean of recorded values.
+	 *
+	 * @return - mean, or 0 if empty
+	 */
+	public double getMean() {
+		long count = totalCount.get();
+		return count == 0 ? 0 : (double) totalSum.get() / count;
+	}
+
+	/**
+	 * Returns value below which the given percentage of recorded values fall.
+	 *
+	 * @param percentile - percentile between 0 and 100
+	 * @return - highest value equivalent to the bucket at percentile, or 0 if empty
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			count += counts.get(i);
+		}
+		if (count == 0) return 0;
+		long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(highestValueOf(i), maxValue.get());
+			}
+		}
+		return maxValue.get();
+	}
+
+	/**
+	 * Moves recorded values into a new histogram, clearing this one. A value recorded meanwhile lands in one of them,
+	 * none is lost. While other threads record, read percentiles from the returned copy, so they agree with each other.
+	 *
+	 * @return - histogram of values recorded since the previous drain or reset
+	 */
+	public LatencyHistogram drain() {
+		LatencyHistogram copy = new LatencyHistogram(highestTrackableValue);
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			long moved = counts.getAndSet(i, 0);
+			copy.counts.set(i, moved);
+			count += moved;
+		}
+		copy.totalCount.set(count);
+		copy.totalSum.set(totalSum.getAndSet(0));
+		copy.maxValue.set(maxValue.getAndSet(0));
+		totalCount.addAndGet(-count);
+		return copy;
+	}
+
+	/**
+	 * Clears all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		totalSum.set(0);
+		maxValue.set(0);
+	}
+
+	/**
+	 * Prints percentile distribution in HdrHistogram's text format, readable by its plotting tools.
+	 *
+	 * @param out - output stream
+	 * @param unitScale - values are divided by it when printed, e.g. 1000.0 to print microseconds as milliseconds
+	 */
+	public void outputPercentileDistribution(PrintStream out, double unitScale) {
+		out.println(String.format("%12s %14s %10s %14s", "Value", "Percentile", "TotalCount", "1/(1-Percentile)"));
+		out.println();
+		long total = totalCount.get();
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			long count = counts.get(i);
+			if (count == 0) continue;
+			seen += count;
+			double fraction = (double) seen / total;
+			String inverse = fraction < 1 ? String.format("%14.2f", 1 / (1 - fraction)) : "";
+			out.println(String.format("%12.3f %2.12f %10d %s", highestValueOf(i) / unitScale, fraction, seen, inverse));
+		}
+		out.println(String.format("#[Mean    = %12.3f, Max        = %12.3f]", getMean() / unitScale, getMaxValue() / unitScale));
+		out.println(String.format("#[Total count    = %12d]", total));
+	}
+
+	private static int indexOf(long value) {
+		if (value < LINEAR_LIMIT) return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	private static long highestValueOf(int index) {
+		if (index < LINEAR_LIMIT) return index;
+		int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+		long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
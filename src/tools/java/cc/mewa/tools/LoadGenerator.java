@@ -0,0 +1,272 @@
+package cc.mewa.tools;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import cc.mewa.MewaCodec;
+import cc.mewa.MewaConnection;
+import cc.mewa.MewaConnection.InitConnectionException;
+import cc.mewa.OnMessageAdapter;
+
+/**
+ * LoadGenerator - measures throughput and publish-to-onEvent latency of a channel.
+ * Runs publisher and subscriber MewaConnections in one JVM, so latency is measured with a single clock.
+ * Each event carries its intended send time, so a stalled publisher shows up as latency instead of being hidden.
+ * <p>
+ * Without --uri a local MockMewaServer is started.
+ * Run: java -cp ... cc.mewa.tools.LoadGenerator [--uri ws://host/ws] [--channel name] [--password pass]
+ * [--publishers 1] [--subscribers 1] [--rate 100] [--payload 64] [--duration 30] [--warmup 5] [--out file]
+ * [--latency 0] [--loss 0] [--codec cc.mewa.GsonCodec]
+ */
+public class LoadGenerator {
+	private static final String EVENT_ID = "load.tick";
+	private static final long HIGHEST_LATENCY_MICROS = TimeUnit.HOURS.toMicros(1);
+
+	private String uri;
+	private String channel = "load.channel";
+	private String password = "load";
+	private int publishers = 1;
+	private int subscribers = 1;
+	private double rate = 100;
+	private int payload = 64;
+	private int durationSeconds = 30;
+	private int warmupSeconds = 5;
+	private String outFile;
+	private long serverLatency;
+	private double serverLoss;
+	private String codecClass;
+
+	private final LatencyHistogram total = new LatencyHistogram(HIGHEST_LATENCY_MICROS);
+	private final LatencyHistogram interval = new LatencyHistogram(HIGHEST_LATENCY_MICROS);
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong received = new AtomicLong();
+	private volatile boolean recording;
+	private volatile boolean running = true;
+
+	public static void main(String[] args) throws Exception {
+		LoadGenerator generator = new LoadGenerator();
+		generator.parseArgs(args);
+		boolean received = generator.run();
+		System.exit(received ? 0 : 1);
+	}
+
+	private void parseArgs(String[] args) {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String name = args[i];
+			String value = args[i + 1];
+			if (name.equals("--uri")) uri = value;
+			else if (name.equals("--channel")) channel = value;
+			else if (name.equals("--password")) password = value;
+			else if (name.equals("--publishers")) publishers = Integer.parseInt(value);
+			else if (name.equals("--subscribers")) subscribers = Integer.parseInt(value);
+			else if (name.equals("--rate")) rate = Double.parseDouble(value);
+			else if (name.equals("--payload")) payload = Integer.parseInt(value);
+			else if (name.equals("--duration")) durationSeconds = Integer.parseInt(value);
+			else if (name.equals("--warmup")) warmupSeconds = Integer.parseInt(value);
+			else if (name.equals("--out")) outFile = value;
+			else if (name.equals("--latency")) serverLatency = Long.parseLong(value);
+			else if (name.equals("--loss")) serverLoss = Double.parseDouble(value);
+			else if (name.equals("--codec")) codecClass = value;
+			else throw new IllegalArgumentException("Unknown option " + name);
+		}
+	}
+
+	/**
+	 * Runs the test and prints results.
+	 * 
+	 * @return - whether any event was received
+	 */
+	private boolean run() throws IOException, InterruptedException, InitConnectionException, ReflectiveOperationException {
+		MockMewaServer server = null;
+		if (uri == null) {
+			server = new MockMewaServer(0);
+			server.setLatencyMillis(serverLatency);
+			server.setLossRate(serverLoss);
+			server.start();
+			uri = server.getUri();
+		}
+		System.out.println(String.format("Target %s, %d publishers at %.1f events/s, %d subscribers, payload %d bytes",
+				uri, publishers, rate, subscribers, payload));
+		if (codecClass != null) {
+			System.out.println("Codec " + codecClass);
+		}
+
+		List<MewaConnection> connections = new ArrayList<MewaConnection>();
+		for (int i = 0; i < subscribers; i++) {
+			MewaConnection connection = new MewaConnection(uri, channel, "load-sub-" + i, password);
+			connection.subscribeToEvents(new String[] { EVENT_ID });
+			setCodec(connection);
+			connection.setOnMessageListener(new Subscriber());
+			connections.add(connection);
+		}
+		List<MewaConnection> publisherConnections = new ArrayList<MewaConnection>();
+		for (int i = 0; i < publishers; i++) {
+			MewaConnection connection = new MewaConnection(uri, channel, "load-pub-" + i, password);
+			connection.subscribeToEvents(new String[0]);
+			setCodec(connection);
+			connection.setOnMessageListener(new Subscriber());
+			connections.add(connection);
+			publisherConnections.add(connection);
+		}
+		for (MewaConnection connection : connections) {
+			connection.connect();
+		}
+		awaitConnected(connections, 10000);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (final MewaConnection connection : publisherConnections) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					publish(connection);
+				}
+			}, "publisher-" + connection.getDevice());
+			thread.start();
+			threads.add(thread);
+		}
+
+		System.out.println("Warming up for " + warmupSeconds + " s");
+		Thread.sleep(TimeUnit.SECONDS.toMillis(warmupSeconds));
+		total.reset();
+		interval.reset();
+		sent.set(0);
+		received.set(0);
+		recording = true;
+
+		System.out.println(String.format("%8s %10s %10s %10s %10s %10s %10s", "time", "sent/s", "recv/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+		long start = System.nanoTime();
+		long lastSent = 0;
+		long lastReceived = 0;
+		for (int second = 1; second <= durationSeconds; second++) {
+			LockSupport.parkNanos(start + TimeUnit.SECONDS.toNanos(second) - System.nanoTime());
+			long nowSent = sent.get();
+			long nowReceived = received.get();
+			LatencyHistogram row = interval.drain();
+			System.out.println(String.format("%7ds %10d %10d %10.3f %10.3f %10.3f %10.3f", second, nowSent - lastSent, nowReceived - lastReceived,
+					row.getValueAtPercentile(50) / 1000.0, row.getValueAtPercentile(99) / 1000.0,
+					row.getValueAtPercentile(99.9) / 1000.0, row.getMaxValue() / 1000.0));
+			lastSent = nowSent;
+			lastReceived = nowReceived;
+		}
+		recording = false;
+		running = false;
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		PrintStream summary = System.out;
+		summary.println(String.format("Sent %d events (%.1f/s), received %d (%.1f/s, %d subscribers)", sent.get(), sent.get() / seconds,
+				received.get(), received.get() / seconds, subscribers));
+		summary.println(String.format("Latency ms: p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f",
+				total.getValueAtPercentile(50) / 1000.0, total.getValueAtPercentile(90) / 1000.0, total.getValueAtPercentile(99) / 1000.0,
+				total.getValueAtPercentile(99.9) / 1000.0, total.getMaxValue() / 1000.0));
+		if (outFile != null) {
+			PrintStream out = new PrintStream(new FileOutputStream(outFile));
+			try {
+				total.outputPercentileDistribution(out, 1000.0);
+			} finally {
+				out.close();
+			}
+			summary.println("Percentile distribution (ms) written to " + outFile);
+		}
+
+		for (MewaConnection connection : connections) {
+			connection.close();
+		}
+		if (server != null) {
+			summary.println("Server: " + server.getStats());
+			server.stop();
+		}
+		return received.get() > 0;
+	}
+
+	private void setCodec(MewaConnection connection) throws ReflectiveOperationException {
+		if (codecClass != null) {
+			connection.setCodec((MewaCodec) Class.forName(codecClass).getDeclaredConstructor().newInstance());
+		}
+	}
+
+	private static void awaitConnected(List<MewaConnection> connections, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		for (MewaConnection connection : connections) {
+			while (!connection.isConnectedToChannel()) {
+				if (System.currentTimeMillis() > deadline) {
+					throw new IllegalStateException(connection.getDevice() + " did not connect to " + connection.getChannel());
+				}
+				Thread.sleep(10);
+			}
+		}
+	}
+
+	/**
+	 * Sends events at fixed rate. Params: intended send time in nanoseconds, colon, padding up to payload size.
+	 */
+	private void publish(MewaConnection connection) {
+		long period = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+		StringBuilder padding = new StringBuilder();
+		for (int i = 0; i < payload; i++) {
+			padding.append('x');
+		}
+		long next = System.nanoTime();
+		while (running) {
+			long now = System.nanoTime();
+			if (now < next) {
+				LockSupport.parkNanos(next - now);
+				continue;
+			}
+			String prefix = next + ":";
+			connection.sendEvent(EVENT_ID, prefix + padding.substring(0, Math.max(0, payload - prefix.length())));
+			sent.incrementAndGet();
+			next += period;
+		}
+	}
+
+	/**
+	 * Subscriber - records latency of received load events
+	 */
+	private class Subscriber extends OnMessageAdapter {
+		@Override
+		public void onEvent(String timestamp, String fromDevice, String eventId, String params) {
+			long now = System.nanoTime();
+			if (!recording || !eventId.equals(EVENT_ID)) return;
+			int colon = params.indexOf(':');
+			if (colon < 0) return;
+			long latencyMicros = (now - Long.parseLong(params.substring(0, colon))) / 1000;
+			total.recordValue(latencyMicros);
+			interval.recordValue(latencyMicros);
+			received.incrementAndGet();
+		}
+
+		@Override
+		public void onConnected() {
+
+		}
+
+		@Override
+		public void onClosed() {
+
+		}
+
+		@Override
+		public void onError(String reason) {
+			System.err.println("Error: " + reason);
+		}
+
+		@Override
+		public void onLastEvents(String timestamp, List<String[]> eventList) {
+
+		}
+
+		@Override
+		public void onAck() {
+
+		}
+	}
+}
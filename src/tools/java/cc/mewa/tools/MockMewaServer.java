@@ -0,0 +1,680 @@
+package cc.mewa.tools;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * MockMewaServer - in-process stand-in for mewa channel server, for testing and benchmarking MewaConnection offline.
+ * Speaks connect, disconnect, get-devices, send-event (with ack), send-message and get-last-events (with optional
+ * <i>since</i> timestamp), and notifies about devices joining and leaving channels. Any channel name is accepted, the first connecting device sets its password.
+ * <p>
+ * WebSocket is implemented directly on sockets (text frames, ping and close), one thread per client.
+ * Knobs inject latency, lost frames and dropped connections.
+ * <p>
+ * Run standalone: java -cp ... cc.mewa.tools.MockMewaServer [port] [latencyMillis] [lossRate] [disconnectRate]
+ */
+public class MockMewaServer {
+	private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final int requestedPort;
+	private final Map<String, Channel> channels = new HashMap<String, Channel>();
+	private final Random random = new Random();
+	private final AtomicLong framesIn = new AtomicLong();
+	private final AtomicLong framesOut = new AtomicLong();
+	private final AtomicLong framesLost = new AtomicLong();
+	private final AtomicLong disconnects = new AtomicLong();
+
+	private volatile long latencyMillis;
+	private volatile double lossRate;
+	private volatile double disconnectRate;
+	private volatile int fragmentSize;
+
+	private ServerSocket serverSocket;
+	private ExecutorService connectionThreads;
+	private ScheduledExecutorService delayedSender;
+	private final List<Connection> connections = new ArrayList<Connection>();
+
+	/**
+	 * Constructor for MockMewaServer. The server listens on loopback interface.
+	 *
+	 * @param port - TCP port, or 0 for any free port
+	 */
+	public MockMewaServer(int port) {
+		this.requestedPort = port;
+	}
+
+	/**
+	 * Sets delay added to every frame sent to clients.
+	 *
+	 * @param latencyMillis - delay in milliseconds
+	 */
+	public void setLatencyMillis(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * Sets probability of silently dropping a frame sent to a client.
+	 *
+	 * @param lossRate - probability between 0 and 1
+	 */
+	public void setLossRate(double lossRate) {
+		this.lossRate = lossRate;
+	}
+
+	/**
+	 * Sets probability of abruptly closing the client's socket after each received frame.
+	 *
+	 * @param disconnectRate - probability between 0 and 1
+	 */
+	public void setDisconnectRate(double disconnectRate) {
+		this.disconnectRate = disconnectRate;
+	}
+
+	/**
+	 * Sets maximum payload size of a single WebSocket frame sent to clients. Longer messages are fragmented.
+	 *
+	 * @param fragmentSize - size in bytes, or 0 to never fragment
+	 */
+	public void setFragmentSize(int fragmentSize) {
+		this.fragmentSize = fragmentSize;
+	}
+
+	/**
+	 * Starts listening.
+	 *
+	 * @throws IOException - if the port can't be bound
+	 */
+	public synchronized void start() throws IOException {
+		serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), requestedPort));
+		connectionThreads = Executors.newCachedThreadPool();
+		delayedSender = Executors.newSingleThreadScheduledExecutor();
+		connectionThreads.execute(new Runnable() {
+			@Override
+			public void run() {
+				acceptLoop();
+			}
+		});
+	}
+
+	/**
+	 * Stops listening and drops all clients.
+	 */
+	public synchronized void stop() {
+		try {
+			if (serverSocket != null) serverSocket.close();
+		} catch (IOException e) {
+
+		}
+		disconnectAll();
+		if (connectionThreads != null) connectionThreads.shutdownNow();
+		if (delayedSender != null) delayedSender.shutdownNow();
+	}
+
+	/**
+	 * Returns WebSocket URI of the server.
+	 *
+	 * @return - URI, e.g. ws://127.0.0.1:12345/ws
+	 */
+	public String getUri() {
+		return "ws://127.0.0.1:" + serverSocket.getLocalPort() + "/ws";
+	}
+
+	/**
+	 * Abruptly closes sockets of all connected clients, like a network failure.
+	 */
+	public void disconnectAll() {
+		List<Connection> snapshot;
+		synchronized (connections) {
+			snapshot = new ArrayList<Connection>(connections);
+		}
+		for (Connection connection : snapshot) {
+			connection.kill();
+		}
+	}
+
+	/**
+	 * Returns number of frames dropped on purpose, see <i>setLossRate()</i>.
+	 *
+	 * @return - lost frames
+	 */
+	public long getFramesLost() {
+		return framesLost.get();
+	}
+
+	/**
+	 * Returns counters: frames received, frames sent, frames lost on purpose and dropped connections.
+	 *
+	 * @return - summary text
+	 */
+	public String getStats() {
+		return String.format("in=%d out=%d lost=%d disconnects=%d", framesIn.get(), framesOut.get(), framesLost.get(), disconnects.get());
+	}
+
+	private void acceptLoop() {
+		while (!serverSocket.isClosed()) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+			} catch (IOException e) {
+				return;
+			}
+			connectionThreads.execute(new Runnable() {
+				@Override
+				public void run() {
+					Connection connection = new Connection(socket);
+					synchronized (connections) {
+						connections.add(connection);
+					}
+					try {
+						connection.run();
+					} finally {
+						synchronized (connections) {
+							connections.remove(connection);
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Handles request of a connected client.
+	 */
+	private void handle(Connection connection, JsonObject request) {
+		String type = request.get("type").getAsString();
+		if (type.equals("connect")) {
+			handleConnect(connection, request);
+			return;
+		}
+
+		Channel channel = connection.channel;
+		if (channel == null) {
+			connection.send(frame("not-connected-error"));
+			return;
+		}
+
+		if (type.equals("disconnect")) {
+			leave(connection);
+			connection.send(frame("disconnected"));
+			connection.closeAfterSent();
+		} else if (type.equals("get-devices")) {
+			JsonObject response = frame("devices-event");
+			JsonArray devices = new JsonArray();
+			synchronized (channel) {
+				for (String device : channel.devices.keySet()) {
+					devices.add(new JsonPrimitive(device));
+				}
+			}
+			response.add("devices", devices);
+			connection.send(response);
+		} else if (type.equals("send-event")) {
+			JsonObject event = frame("event");
+			event.addProperty("device", connection.device);
+			event.add("id", request.get("id"));
+			event.add("params", request.get("params"));
+			String eventId = request.get("id").getAsString();
+			List<Connection> receivers = new ArrayList<Connection>();
+			synchronized (channel) {
+				channel.putLastEvent(connection.device + "\u0000" + eventId, event);
+				for (Connection other : channel.devices.values()) {
+					if (other != connection && other.isSubscribed(eventId)) receivers.add(other);
+				}
+			}
+			String text = event.toString();
+			for (Connection receiver : receivers) {
+				receiver.send(text);
+			}
+			JsonElement ack = request.get("ack");
+			if (ack != null && ack.getAsBoolean()) {
+				connection.send(frame("ack"));
+			}
+		} else if (type.equals("send-message")) {
+			Connection target;
+			synchronized (channel) {
+				target = channel.devices.get(request.get("device").getAsString());
+			}
+			if (target != null) {
+				JsonObject message = frame("message");
+				message.addProperty("device", connection.device);
+				message.add("id", request.get("id"));
+				message.add("params", request.get("params"));
+				target.send(message);
+			}
+		} else if (type.equals("get-last-events")) {
+			String device = request.get("device").getAsString();
+			String prefix = request.get("prefix").getAsString();
+			JsonElement since = request.get("since");
+			JsonArray events = new JsonArray();
+			synchronized (channel) {
+				for (JsonObject event : since != null ? channel.lastEventsSince(since.getAsString()) : channel.lastEvents.values()) {
+					if ((device.isEmpty() || event.get("device").getAsString().equals(device))
+							&& event.get("id").getAsString().startsWith(prefix)) {
+						JsonObject entry = new JsonObject();
+						entry.add("time", event.get("time"));
+						entry.add("device", event.get("device"));
+						entry.add("id", event.get("id"));
+						entry.add("params", event.get("params"));
+						events.add(entry);
+					}
+				}
+			}
+			JsonObject response = frame("last-events");
+			response.add("events", events);
+			connection.send(response);
+		}
+	}
+
+	private void handleConnect(Connection connection, JsonObject request) {
+		String channelName = request.get("channel").getAsString();
+		String device = request.get("device").getAsString();
+		String password = request.get("password").getAsString();
+
+		Channel channel;
+		synchronized (channels) {
+			channel = channels.get(channelName);
+			if (channel == null) {
+				channel = new Channel(password);
+				channels.put(channelName, channel);
+			}
+		}
+		if (!channel.password.equals(password)) {
+			connection.send(frame("authorization-error"));
+			connection.closeAfterSent();
+			return;
+		}
+
+		List<String> subscriptions = new ArrayList<String>();
+		JsonElement subscribe = request.get("subscribe");
+		if (subscribe != null && subscribe.isJsonArray()) {
+			for (JsonElement prefix : subscribe.getAsJsonArray()) {
+				subscriptions.add(prefix.getAsString());
+			}
+		}
+
+		List<Connection> others;
+		synchronized (channel) {
+			if (connection.channel != null || channel.devices.containsKey(device)) {
+				connection.send(frame("already-connected-error"));
+				return;
+			}
+			connection.channel = channel;
+			connection.device = device;
+			connection.subscriptions = subscriptions;
+			others = new ArrayList<Connection>(channel.devices.values());
+			channel.devices.put(device, connection);
+		}
+		connection.send(frame("connected"));
+
+		JsonObject joined = frame("joined-channel");
+		joined.addProperty("device", device);
+		String text = joined.toString();
+		for (Connection other : others) {
+			other.send(text);
+		}
+	}
+
+	private void leave(Connection connection) {
+		Channel channel = connection.channel;
+		if (channel == null) return;
+
+		List<Connection> others;
+		synchronized (channel) {
+			if (channel.devices.get(connection.device) != connection) return;
+			channel.devices.remove(connection.device);
+			others = new ArrayList<Connection>(channel.devices.values());
+		}
+		JsonObject left = frame("left-channel");
+		left.addProperty("device", connection.device);
+		String text = left.toString();
+		for (Connection other : others) {
+			other.send(text);
+		}
+	}
+
+	private static JsonObject frame(String type) {
+		JsonObject frame = new JsonObject();
+		frame.addProperty("type", type);
+		frame.addProperty("time", Instant.now().truncatedTo(ChronoUnit.MILLIS).toString());
+		return frame;
+	}
+
+	public static void main(String[] args) throws Exception {
+		MockMewaServer server = new MockMewaServer(args.length > 0 ? Integer.parseInt(args[0]) : 8080);
+		if (args.length > 1) server.setLatencyMillis(Long.parseLong(args[1]));
+		if (args.length > 2) server.setLossRate(Double.parseDouble(args[2]));
+		if (args.length > 3) server.setDisconnectRate(Double.parseDouble(args[3]));
+		server.start();
+		System.out.println("Mock mewa server listening on " + server.getUri());
+		while (true) {
+			Thread.sleep(10000);
+			System.out.println(server.getStats());
+		}
+	}
+
+	/**
+	 * Channel - devices connected to a channel and the last event of each type sent by each device.
+	 * Last events are also indexed by time, so those since a timestamp are found without scanning all of them.
+	 */
+	private static class Channel {
+		final String password;
+		final Map<String, Connection> devices = new LinkedHashMap<String, Connection>();
+		final Map<String, JsonObject> lastEvents = new LinkedHashMap<String, JsonObject>();
+		final TreeMap<String, JsonObject> lastEventsByTime = new TreeMap<String, JsonObject>(); // epoch millis + key
+
+		Channel(String password) {
+			this.password = password;
+		}
+
+		void putLastEvent(String key, JsonObject event) {
+			JsonObject previous = lastEvents.put(key, event);
+			if (previous != null) {
+				lastEventsByTime.remove(timeKey(previous.get("time").getAsString(), key));
+			}
+			lastEventsByTime.put(timeKey(event.get("time").getAsString(), key), event);
+		}
+
+		/**
+		 * Returns last events at or after the timestamp, oldest first.
+		 */
+		Iterable<JsonObject> lastEventsSince(String since) {
+			return lastEventsByTime.tailMap(timeKey(since, ""), true).values();
+		}
+
+		private static String timeKey(String time, String key) {
+			return String.format("%020d", Instant.parse(time).toEpochMilli()) + key;
+		}
+	}
+
+	/**
+	 * Connection - single WebSocket client
+	 */
+	private class Connection {
+		final Socket socket;
+		final Object writeLock = new Object();
+		volatile Channel channel;
+		volatile String device;
+		volatile List<String> subscriptions;
+		OutputStream out;
+
+		Connection(Socket socket) {
+			this.socket = socket;
+		}
+
+		boolean isSubscribed(String eventId) {
+			for (String prefix : subscriptions) {
+				if (eventId.startsWith(prefix)) return true;
+			}
+			return false;
+		}
+
+		void run() {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				out = socket.getOutputStream();
+				if (!handshake(in)) return;
+
+				JsonParser parser = new JsonParser();
+				String text;
+				while ((text = readMessage(in)) != null) {
+					framesIn.incrementAndGet();
+					JsonElement request;
+					try {
+						request = parser.parse(text);
+					} catch (RuntimeException e) {
+						continue;
+					}
+					if (request.isJsonObject() && request.getAsJsonObject().has("type")) {
+						handle(this, request.getAsJsonObject());
+					}
+					if (disconnectRate > 0 && random.nextDouble() < disconnectRate) {
+						kill();
+						return;
+					}
+				}
+			} catch (IOException e) {
+
+			} finally {
+				leave(this);
+				close();
+			}
+		}
+
+		void send(JsonObject frame) {
+			send(frame.toString());
+		}
+
+		void send(final String text) {
+			if (lossRate > 0 && random.nextDouble() < lossRate) {
+				framesLost.incrementAndGet();
+				return;
+			}
+			long delay = latencyMillis;
+			if (delay <= 0) {
+				write(text);
+				return;
+			}
+			delayedSender.schedule(new Runnable() {
+				@Override
+				public void run() {
+					write(text);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+
+		private void write(String text) {
+			byte[] payload = text.getBytes(UTF8);
+			int size = fragmentSize > 0 ? fragmentSize : payload.length;
+			try {
+				synchronized (writeLock) {
+					int offset = 0;
+					do {
+						int length = Math.min(size, payload.length - offset);
+						boolean fin = offset + length == payload.length;
+						writeFrame(offset == 0 ? 0x1 : 0x0, fin, payload, offset, length);
+						offset += length;
+					} while (offset < payload.length);
+					out.flush();
+				}
+				framesOut.incrementAndGet();
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		private void writeFrame(int opcode, boolean fin, byte[] payload, int offset, int length) throws IOException {
+			byte[] header = new byte[10];
+			int headerLength;
+			header[0] = (byte) ((fin ? 0x80 : 0) | opcode);
+			if (length < 126) {
+				header[1] = (byte) length;
+				headerLength = 2;
+			} else if (length < 65536) {
+				header[1] = 126;
+				header[2] = (byte) (length >>> 8);
+				header[3] = (byte) length;
+				headerLength = 4;
+			} else {
+				header[1] = 127;
+				for (int i = 0; i < 8; i++) {
+					header[2 + i] = (byte) ((long) length >>> (56 - 8 * i));
+				}
+				headerLength = 10;
+			}
+			out.write(header, 0, headerLength);
+			out.write(payload, offset, length);
+		}
+
+		private boolean handshake(InputStream in) throws IOException {
+			String key = null;
+			String line;
+			while ((line = readLine(in)) != null && !line.isEmpty()) {
+				int colon = line.indexOf(':');
+				if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")) {
+					key = line.substring(colon + 1).trim();
+				}
+			}
+			if (key == null) return false;
+
+			String accept;
+			try {
+				MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+				accept = Base64.getEncoder().encodeToString(sha1.digest((key + WEBSOCKET_GUID).getBytes(UTF8)));
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+			String response = "HTTP/1.1 101 Switching Protocols\r\n"
+					+ "Upgrade: websocket\r\n"
+					+ "Connection: Upgrade\r\n"
+					+ "Sec-WebSocket-Accept: " + accept + "\r\n\r\n";
+			synchronized (writeLock) {
+				out.write(response.getBytes(UTF8));
+				out.flush();
+			}
+			return true;
+		}
+
+		private String readLine(InputStream in) throws IOException {
+			StringBuilder line = new StringBuilder();
+			int c;
+			while ((c = in.read()) != -1) {
+				if (c == '\n') return line.toString();
+				if (c != '\r') line.append((char) c);
+			}
+			return line.length() > 0 ? line.toString() : null;
+		}
+
+		/**
+		 * Reads next complete text message, answering pings. Returns null when closed.
+		 */
+		private String readMessage(DataInputStream in) throws IOException {
+			ByteArrayOutputStream message = new ByteArrayOutputStream();
+			while (true) {
+				int b0, b1;
+				try {
+					b0 = in.readUnsignedByte();
+				} catch (EOFException e) {
+					return null;
+				}
+				b1 = in.readUnsignedByte();
+				boolean fin = (b0 & 0x80) != 0;
+				int opcode = b0 & 0x0f;
+				long length = b1 & 0x7f;
+				if (length == 126) {
+					length = in.readUnsignedShort();
+				} else if (length == 127) {
+					length = in.readLong();
+				}
+				byte[] mask = new byte[4];
+				if ((b1 & 0x80) != 0) {
+					in.readFully(mask);
+				}
+				byte[] payload = new byte[(int) length];
+				in.readFully(payload);
+				for (int i = 0; i < payload.length; i++) {
+					payload[i] ^= mask[i & 3];
+				}
+
+				if (opcode == 0x8) { // close
+					synchronized (writeLock) {
+						writeFrame(0x8, true, payload, 0, Math.min(payload.length, 2));
+						out.flush();
+					}
+					return null;
+				} else if (opcode == 0x9) { // ping
+					synchronized (writeLock) {
+						writeFrame(0xA, true, payload, 0, payload.length);
+						out.flush();
+					}
+				} else if (opcode == 0x1 || opcode == 0x0) {
+					message.write(payload);
+					if (fin) return new String(message.toByteArray(), UTF8);
+				}
+			}
+		}
+
+		/**
+		 * Sends close frame after frames already queued, then closes the socket.
+		 */
+		void closeAfterSent() {
+			Runnable closing = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						synchronized (writeLock) {
+							writeFrame(0x8, true, new byte[] { 0x03, (byte) 0xe8 }, 0, 2); // 1000 normal closure
+							out.flush();
+						}
+					} catch (IOException e) {
+
+					}
+					close();
+				}
+			};
+			long delay = latencyMillis;
+			if (delay <= 0) {
+				closing.run();
+			} else {
+				delayedSender.schedule(closing, delay, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		/**
+		 * Drops the connection without closing handshake.
+		 */
+		void kill() {
+			disconnects.incrementAndGet();
+			try {
+				socket.setSoLinger(true, 0);
+			} catch (SocketException e) {
+
+			}
+			close();
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package cc.mewa.tools;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import cc.mewa.StringPool;
+
+/**
+ * StringPoolBenchmark - decodes event frames the way MewaConnection does and keeps them, like a consumer holding history.
+ * Reports retained heap and GC time with and without StringPool.
+ * Run: java -cp ... cc.mewa.tools.StringPoolBenchmark [frames]
+ */
+public class StringPoolBenchmark {
+	private static final String[] DEVICES = { "android", "kitchen.light", "hall.switch", "thermostat", "gateway" };
+	private static final String[] EVENTS = { "org.fi24.light", "org.fi24.switch", "org.fi24.temperature" };
+
+	public static void main(String[] args) {
+		int frames = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		String[] messages = new String[1024];
+		for (int i = 0; i < messages.length; i++) {
+			JsonObject json = new JsonObject();
+			json.addProperty("type", "event");
+			json.addProperty("time", "2014-11-04T10:15:30.123Z");
+			json.addProperty("device", DEVICES[i % DEVICES.length]);
+			json.addProperty("id", EVENTS[i % EVENTS.length]);
+			json.addProperty("params", "");
+			messages[i] = json.toString();
+		}
+
+		for (int round = 0; round < 2; round++) {
+			run("without pool", frames, messages, null);
+			run("with pool", frames, messages, new StringPool(256));
+		}
+	}
+
+	private static void run(String name, int frames, String[] messages, StringPool pool) {
+		System.gc();
+		long heapBefore = usedHeap();
+		long gcBefore = gcMillis();
+		long start = System.nanoTime();
+
+		List<String[]> retained = new ArrayList<String[]>(frames);
+		JsonParser parser = new JsonParser();
+		for (int i = 0; i < frames; i++) {
+			JsonObject json = parser.parse(messages[i & (messages.length - 1)]).getAsJsonObject();
+			String device = json.get("device").getAsString();
+			String eventId = json.get("id").getAsString();
+			if (pool != null) {
+				device = pool.get(device);
+				eventId = pool.get(eventId);
+			}
+			retained.add(new String[] { device, eventId });
+		}
+
+		long elapsed = System.nanoTime() - start;
+		long gc = gcMillis() - gcBefore;
+		System.gc();
+		long heap = usedHeap() - heapBefore;
+		System.out.println(String.format("%-14s %6d ms, retained heap %6d KB, GC time %5d ms (%d frames kept)",
+				name, elapsed / 1000000, heap / 1024, gc, retained.size()));
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static long gcMillis() {
+		long total = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, bean.getCollectionTime());
+		}
+		return total;
+	}
+}
@@ -0,0 +1,88 @@
+package cc.mewa.tools;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.OffsetDateTime;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import cc.mewa.TimestampParser;
+
+/**
+ * TimestampParserBenchmark - compares TimestampParser with SimpleDateFormat and java.time parsing.
+ * Run: java -cp ... cc.mewa.tools.TimestampParserBenchmark [iterations]
+ */
+public class TimestampParserBenchmark {
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		String[] timestamps = sampleTimestamps(4096);
+
+		final TimestampParser parser = new TimestampParser();
+		final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSX", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		verify(parser, format, timestamps);
+
+		for (int round = 1; round <= ROUNDS; round++) {
+			System.out.println("Round " + round + "/" + ROUNDS);
+			run("TimestampParser", iterations, timestamps, new Parser() {
+				@Override
+				public long parse(String s) {
+					return parser.parseMillis(s);
+				}
+			});
+			run("SimpleDateFormat", iterations, timestamps, new Parser() {
+				@Override
+				public long parse(String s) throws ParseException {
+					return format.parse(s).getTime();
+				}
+			});
+			run("java.time", iterations, timestamps, new Parser() {
+				@Override
+				public long parse(String s) {
+					return OffsetDateTime.parse(s).toInstant().toEpochMilli();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Consecutive timestamps a few milliseconds apart, like frames of a busy channel.
+	 */
+	private static String[] sampleTimestamps(int count) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		String[] timestamps = new String[count];
+		long time = 1415095200000L;
+		for (int i = 0; i < count; i++) {
+			time += 7 + i % 13;
+			timestamps[i] = format.format(new java.util.Date(time));
+		}
+		return timestamps;
+	}
+
+	private static void verify(TimestampParser parser, SimpleDateFormat format, String[] timestamps) throws ParseException {
+		for (String s : timestamps) {
+			long expected = format.parse(s).getTime();
+			if (parser.parseMillis(s) != expected || OffsetDateTime.parse(s).toInstant().toEpochMilli() != expected) {
+				throw new IllegalStateException("Parsers disagree on " + s);
+			}
+		}
+	}
+
+	private static void run(String name, int iterations, String[] timestamps, Parser parser) throws Exception {
+		long checksum = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			checksum += parser.parse(timestamps[i & (timestamps.length - 1)]);
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format("  %-18s %8.1f ns/op (checksum %d)", name, (double) elapsed / iterations, checksum));
+	}
+
+	private interface Parser {
+		long parse(String s) throws Exception;
+	}
+}